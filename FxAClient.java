@@ -1,5 +1,8 @@
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class FxAClient {
@@ -25,14 +28,14 @@ public class FxAClient {
         int destPort = Integer.parseInt(args[2]);
 
         //create instance of API
-        RxPAPI clientRxP = new RxPAPI(destAddress, srcPort, destPort, true);
+        final RxPAPI clientRxP = new RxPAPI(destAddress, srcPort, destPort, true);
 
         Scanner sc = new Scanner(System.in);
 
         while (true) {
             System.out.println();
             System.out.println("Please enter one of the following commands:");
-            System.out.println("connect, get F, post F, window W, disconnect");
+            System.out.println("connect, get F [F ...] [offset=O] [length=L] [stripes=S], post F, window W, checksum C, mss M, delta on|off, compress C|off, fec on|off, acks N T, stats, disconnect");
             System.out.print(">>");
 
             String command = sc.nextLine();
@@ -43,9 +46,74 @@ public class FxAClient {
             if (command.equals("connect")) {
                 clientRxP.createConnection();
             } else if (commands[0].equals("get")) {
-                clientRxP.recvFrom(commands[1]);
+                //part of a file is asked for with offset=O and length=L after its name, and a large file
+                //is downloaded in parallel stripes with stripes=S
+                List<String> names = new ArrayList<>();
+                long offset = 0;
+                long length = -1;
+                int stripes = 1;
+                try {
+                    for (int i = 1; i < commands.length; i++) {
+                        if (commands[i].startsWith("offset=")) {
+                            offset = Long.parseLong(commands[i].substring(7));
+                        } else if (commands[i].startsWith("length=")) {
+                            length = Long.parseLong(commands[i].substring(7));
+                        } else if (commands[i].startsWith("stripes=")) {
+                            stripes = Integer.parseInt(commands[i].substring(8));
+                        } else {
+                            names.add(commands[i]);
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("Please enter integers as the offset, length and stripes.");
+                    continue;
+                }
+                if (names.isEmpty() || offset < 0) {
+                    System.out.println("Please enter a valid command with correct spelling and spacing.");
+                    continue;
+                }
+                //several names, a pattern such as *.txt or a directory (written with a / at the end)
+                //are downloaded together as one batch
+                final String[] filenames = names.toArray(new String[names.size()]);
+                final boolean batch = filenames.length > 1 || RxPBatch.isPattern(filenames[0])
+                        || filenames[0].endsWith("/") || new File(filenames[0]).isDirectory();
+                final long start = offset;
+                final long count = length;
+                final int parts = stripes;
+                //downloads run in the background, each on its own stream of the connection,
+                //so more files can be requested while earlier ones are still downloading
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (batch) {
+                                clientRxP.recvBatch(filenames);
+                            } else if (parts > 1 && start == 0 && count < 0) {
+                                clientRxP.recvStriped(filenames[0], parts);
+                            } else {
+                                clientRxP.recvFrom(filenames[0], start, count);
+                            }
+                        } catch (IOException e) {
+                            System.out.println("Error downloading " + String.join(" ", filenames) + ".");
+                        }
+                    }
+                }).start();
+            } else if (commands[0].equals("delta") && commands.length == 2) {
+                clientRxP.setDelta(commands[1]);
+            } else if (commands[0].equals("compress") && commands.length == 2) {
+                clientRxP.setCompression(commands[1]);
+            } else if (commands[0].equals("fec") && commands.length == 2) {
+                clientRxP.setFec(commands[1]);
+            } else if (commands[0].equals("acks") && commands.length == 3) {
+                clientRxP.setAckDelay(commands[1], commands[2]);
             } else if (commands[0].equals("window")) {
                 clientRxP.updateWindow(commands[1]);
+            } else if (commands[0].equals("checksum")) {
+                clientRxP.setChecksum(commands[1]);
+            } else if (commands[0].equals("mss")) {
+                clientRxP.setMaxSegmentSize(commands[1]);
+            } else if (command.equals("stats")) {
+                clientRxP.printStats();
             } else if (command.equals("disconnect")) {
                 clientRxP.close();
             } else {
@@ -8,13 +8,15 @@ public class FxAServer {
     public static void main(String[] args) throws IOException {
 
         //check arguments
-        if (args.length != 3) {
+        if (args.length < 3 || args.length > 4 || (args.length == 4 && !args[3].equals("blocking")
+                && !args[3].equals("nio"))) {
             System.out.println("Invalid number of arguments.");
-            System.out.println("Parameters: X A P");
+            System.out.println("Parameters: X A P [E]");
             System.out.println("X is the port number at which FxAServer should bind to (odd number equal to"
                     + " client's port number + 1)");
             System.out.println("A is the IP address of the NetEmu.");
             System.out.println("P is the UDP port number of the NetEmu.");
+            System.out.println("E is blocking (a thread per transfer, the default) or nio (a single event loop thread).");
             System.exit(0);
         }
 
@@ -29,10 +31,14 @@ public class FxAServer {
         RxPAPI serverRxP = new RxPAPI(destAddress, srcPort, destPort, false);
 
         //start new thread to accept input at the same time server is listening
-        Thread t = new Thread(new ServerListen());
+        Thread t = new Thread(new ServerListen(serverRxP));
         t.start();
         //start listening
-        serverRxP.listen();
+        if (args.length == 4 && args[3].equals("nio")) {
+            serverRxP.eventLoop();
+        } else {
+            serverRxP.listen();
+        }
     }
 
     /*
@@ -40,18 +46,35 @@ public class FxAServer {
      */
     private static class ServerListen implements Runnable {
 
+        private RxPAPI serverRxP;
+
+        public ServerListen(RxPAPI serverRxP) {
+            this.serverRxP = serverRxP;
+        }
+
         @Override
         public void run() {
             Scanner sc = new Scanner(System.in);
             while (true) {
                 System.out.print(">>");
                 String input = sc.nextLine();
+                String[] inputs = input.split(" ");
                 if (input.equals("terminate")) {
                     System.out.println("Exiting the server.");
                     break; //leave loop if user wants to terminate the server
+                } else if (inputs[0].equals("cc") && inputs.length == 2) {
+                    serverRxP.setCongestionControl(inputs[1]);
+                } else if (inputs[0].equals("cwnd") && inputs.length == 2) {
+                    serverRxP.writeCongestionTrace(inputs[1]);
+                } else if (inputs[0].equals("mss") && inputs.length == 2) {
+                    serverRxP.setMaxSegmentSize(inputs[1]);
+                } else if (inputs[0].equals("cache") && inputs.length == 2) {
+                    serverRxP.setCacheSize(inputs[1]);
+                } else if (input.equals("stats")) {
+                    serverRxP.printStats();
                 } else {
                     System.out.println();
-                    System.out.println("Please enter a valid command (terminate).");
+                    System.out.println("Please enter a valid command (terminate, cc C, cwnd F, mss M, cache S, stats).");
                     System.out.println("Still listening...");
                 }
             }
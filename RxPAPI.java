@@ -1,53 +1,121 @@
 import java.io.*;
-import java.io.ByteArrayOutputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class RxPAPI {
 
-    private final int ECHOMAX = 255;
-
-    private static final int TIMEOUT = 500;
+    //payload bytes per packet unless a larger segment size is negotiated during the handshake
+    private static final int DEFAULT_MSS = 255;
+    //largest payload that fits in a UDP datagram behind the RxP header
+    public static final int MAX_MSS = 65507 - RxPCodec.HEADER_SIZE;
+    //largest payload that fits in a 1500 byte Ethernet frame behind the IP, UDP and RxP headers
+    public static final int ETHERNET_MSS = 1500 - 20 - 8 - RxPCodec.HEADER_SIZE;
+    //size of the buffers used to receive handshake packets and requests
+    private static final int MAX_PACKET = 65507;
+    //bytes of files the server keeps in memory by default
+    private static final long DEFAULT_CACHE_SIZE = 256L * 1024 * 1024;
+    //smallest segment size file data is compressed at
+    private static final int MIN_COMPRESSED_MSS = 128;
+    //smallest segment size parity packets are added at
+    private static final int MIN_FEC_MSS = 64;
+    //most ranges of held packets an ACK lists
+    static final int MAX_SACK_RANGES = 8;
+    //most packets one delayed ACK may acknowledge, and most microseconds it may be held back
+    private static final int MAX_ACK_EVERY = 64;
+    private static final int MAX_ACK_DELAY = 100000;
+    //packets received in order the client acknowledges at once after a loss, while the server recovers
+    private static final int QUICK_ACKS = 8;
+    //most bytes of packets the client holds after a gap for one download, which bounds its receive window
+    private static final int MAX_HELD_BYTES = 16 * 1024 * 1024;
+    //fewest microseconds the client waits for a missing packet after a later one arrived before reporting it lost
+    private static final int MIN_REORDER_DELAY = 1000;
+    //bytes in each block of a file sent in stripes, which go to the stripes in turn
+    private static final int STRIPE_BLOCK = 1024 * 1024;
     private static final int MAXTRIES = 50;
+    //most downloads a client may run at once on one connection, each on its own stream
+    private static final int MAX_STREAMS = 16;
 
-    private DatagramSocket socket;
-    private InetAddress destAddress;
+    //how many received bytes the client writes before forcing them to disk
+    private static final long FORCE_INTERVAL = 8 * 1024 * 1024;
 
-    DatagramPacket recvPkt;
-    DatagramPacket sendPkt;
+    //sends and receives this side's datagrams, over a real socket or an emulated network
+    private RxPTransport transport;
+    //the transport's channel, used by the event loop without blocking
+    private DatagramChannel channel;
 
     private int srcPort;
-    private int destPort;
-
-    private int sequenceNum;
 
-    private String fileName;
-
-    private String challenge;
+    //checksum the client asks for during the handshake
+    private int preferredChecksum = RxPChecksum.CRC32C;
+    //whether the client only downloads the changes to files it has an older copy of, when the server can
+    private boolean deltaEnabled = true;
+    //compressor the client asks for during the handshake, or null to ask for none
+    private String preferredCompression = RxPCompressor.getNames()[0];
+    //whether the client asks the server to add parity packets to its transfers
+    private boolean fecEnabled = false;
+    //how many packets received in order the client asks to acknowledge with one ACK, and how many
+    //microseconds it asks to hold that ACK back for at most
+    private int preferredAckEvery = 4;
+    private int preferredAckDelay = 1000;
+
+    //the largest payload bytes per packet this side will agree to
+    private int maxMss;
 
     private List<RxPPacket> pktSendBuff;
-    private List<RxPPacket> pktRecvBuff;
 
     private boolean client;
 
-    private int windowSize = 1;
-
-    //following are for sliding window only
-    private int currentWindowSize;
-    private int currentSeqNumStart;
-    private boolean[] recvdPktArr;
-    private final Object lock = new Object();
+    //the client's connection to the server
+    private RxPConnection connection;
+    //the client's downloads by stream; whichever download thread holds the receiving turn reads the
+    //packets of all of them, and the lock also guards starting and finishing downloads
+    private final Map<Integer, ClientStream> streams = new ConcurrentHashMap<>();
+    private final Object receiveLock = new Object();
+    private boolean receiving = false;
+    private boolean changingWindow = false;
+    //further connections to the server, each from a socket of its own, that stripes of files are downloaded on;
+    //they are made the first time they are needed and kept until this connection is closed
+    private final List<RxPAPI> stripeConnections = new ArrayList<>();
+
+    //the server's connections, keyed by the address each client's packets come from
+    private final Map<InetSocketAddress, RxPConnection> connections = new ConcurrentHashMap<>();
+    //threads that send files to clients, so transfers to different clients run at the same time
+    private ExecutorService workers;
+    //files that are requested often, kept in memory with the checksums of their packets
+    private final RxPSegmentCache segmentCache = new RxPSegmentCache(DEFAULT_CACHE_SIZE);
+
+    //congestion control used by the sliding window sender, and the one used by the last transfer
+    private String congestionControl = "reno";
+    private volatile RxPCongestionControl lastCongestionControl;
 
     /* State
      * false = CLOSED
@@ -56,23 +124,63 @@ public class RxPAPI {
     private boolean connected = false;
 
 
+    /**
+     * @param destAddress the address of the server, or of the NetEmu in between. The server replies to
+     * the address each client's packets come from instead.
+     * @param srcPort the port to bind to.
+     * @param destPort the port of the server, or of the NetEmu in between.
+     * @param client whether this is the client side.
+     */
     public RxPAPI(InetAddress destAddress, int srcPort, int destPort, boolean client) {
-        this.destAddress = destAddress;
+        this(openSocket(srcPort), srcPort, destAddress, destPort, client);
+    }
+
+    /**
+     * @param transport sends and receives this side's datagrams, such as an emulated network.
+     * @param destAddress the address of the server.
+     * @param destPort the port of the server.
+     * @param client whether this is the client side.
+     */
+    public RxPAPI(RxPTransport transport, InetAddress destAddress, int destPort, boolean client) {
+        this(transport, transport.getLocalPort(), destAddress, destPort, client);
+    }
+
+    private RxPAPI(RxPTransport transport, int srcPort, InetAddress destAddress, int destPort, boolean client) {
+        this.transport = transport;
         this.srcPort = srcPort;
-        this.destPort = destPort;
         this.client = client;
 
         //Initialize buffers
         pktSendBuff = new ArrayList<>();
-        pktRecvBuff = new ArrayList<>();
 
-        try {
-            socket = new DatagramSocket(srcPort);
-            if (client) {
-                socket.setSoTimeout(TIMEOUT);
+        //the client asks for packets that fit in an Ethernet frame, the server allows anything up to the UDP limit
+        maxMss = client ? ETHERNET_MSS : MAX_MSS;
+
+        if (client) {
+            connection = new RxPConnection(new InetSocketAddress(destAddress, destPort), destPort, DEFAULT_MSS);
+            connection.registerMBeans(srcPort);
+            try {
+                if (transport != null) {
+                    transport.setSoTimeout(connection.getRtt().getRtoMillis());
+                }
+            } catch (IOException e) {
+                System.out.println("Could not create a socket.");
             }
-        } catch (SocketException e) {
+        } else {
+            workers = Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Helper method that opens a UDP socket bound to a port.
+     * @param port the port to bind to.
+     */
+    private static RxPTransport openSocket(int port) {
+        try {
+            return new RxPSocketTransport(port);
+        } catch (IOException e) {
             System.out.println("Could not create a socket.");
+            return null;
         }
     }
 
@@ -84,15 +192,22 @@ public class RxPAPI {
         if (connected) {
             System.out.println("Connection is already established.");
         } else {
+            //handshake packets always use the default checksum and segment size
+            connection.setChecksumType(RxPChecksum.CRC32);
+            connection.setMss(DEFAULT_MSS);
+            RxPRttEstimator rtt = connection.getRtt();
+
             //Send connection request with a SYN packet
-            RxPHeader synHeader = new RxPHeader(srcPort, destPort, 0);
+            RxPHeader synHeader = new RxPHeader(srcPort, connection.getDestPort(), 0);
             synHeader.setSYN(true);
+            synHeader.setTimestamp(RxPRttEstimator.timestamp());
 
             RxPPacket synPkt = new RxPPacket(synHeader, null);
             synPkt.updateChecksum();
 
             byte[] synPktBytes = synPkt.getPacketByteArray();
-            sendPkt = new DatagramPacket(synPktBytes, synPktBytes.length, destAddress, destPort);
+            DatagramPacket sendPkt = new DatagramPacket(synPktBytes, synPktBytes.length, connection.getAddress());
+            DatagramPacket recvPkt = new DatagramPacket(new byte[MAX_PACKET], MAX_PACKET);
 
             //keep trying to connect up to MAXTRIES
             while (true) {
@@ -100,10 +215,10 @@ public class RxPAPI {
                 boolean recvdResponse = false;
                 //keep sending until a message is received
                 do {
-                    socket.send(sendPkt);
+                    transport.send(sendPkt);
                     try {
-                        recvPkt = new DatagramPacket(new byte[ECHOMAX], ECHOMAX);
-                        socket.receive(recvPkt);
+                        recvPkt.setLength(MAX_PACKET);
+                        transport.receive(recvPkt);
                         recvdResponse = true;
                     } catch (InterruptedIOException e) {
                         tries++;
@@ -121,9 +236,49 @@ public class RxPAPI {
 
                     //check for data corruption
                     if (recvdHeader.getChecksum() == recvdRxPPkt.calculateChecksum()) {
+                        //the server echoes our timestamp; only sample if the request was not resent (Karn's rule)
+                        if (tries == 0) {
+                            int sample = rtt.sampleEcho(recvdHeader.getTimestamp());
+                            if (sample >= 0) {
+                                connection.getStats().rtt(sample);
+                            }
+                            transport.setSoTimeout(rtt.getRtoMillis());
+                        }
                         //check which message was received; if it's not an ACK,
                         //then it must be a challenge that was sent
                         if (recvdHeader.isACK()) {
+                            //use the options the server accepted; an older server accepts none
+                            Map<String, String> options = parseOptions(recvdRxPPkt.getData(), 0);
+                            //options written badly are treated as not accepted
+                            int acceptedChecksum = options.containsKey("checksum") ? RxPChecksum.parse(options.get("checksum")) : -1;
+                            if (acceptedChecksum >= 0) {
+                                connection.setChecksumType(acceptedChecksum);
+                            }
+                            Integer acceptedMss = intOption(options, "mss");
+                            if (acceptedMss != null && acceptedMss > 0) {
+                                connection.setMss(acceptedMss);
+                            }
+                            Integer acceptedStreams = intOption(options, "streams");
+                            if (acceptedStreams != null && acceptedStreams > 0) {
+                                connection.setMaxStreams(acceptedStreams);
+                            }
+                            connection.setBatch(options.containsKey("batch"));
+                            connection.setRange(options.containsKey("range"));
+                            connection.setDelta(options.containsKey("delta"));
+                            connection.setCompression(options.get("compress"));
+                            connection.setFec("xor".equals(options.get("fec")));
+                            connection.setSack(options.containsKey("sack"));
+                            connection.setRwnd(options.containsKey("rwnd"));
+                            connection.setNak(options.containsKey("nak"));
+                            connection.setStripe(options.containsKey("stripe"));
+                            connection.setStat(options.containsKey("stat"));
+                            Integer acceptedAckEvery = intOption(options, "ackevery");
+                            Integer acceptedAckDelay = intOption(options, "ackdelay");
+                            if (acceptedAckEvery != null && acceptedAckDelay != null && acceptedAckEvery > 0 && acceptedAckDelay >= 0) {
+                                connection.setAckPolicy(acceptedAckEvery, acceptedAckDelay);
+                            } else {
+                                connection.setAckPolicy(1, 0);
+                            }
                             connected = true;
                             System.out.println("Connection established.");
                             break;
@@ -131,13 +286,41 @@ public class RxPAPI {
                             byte[] chalData = recvdRxPPkt.getData();
                             byte[] hashedChal = md5(chalData);
 
-                            RxPHeader hashChalHeader = new RxPHeader(srcPort, destPort, 0);
+                            //offer options to the server after the hash
+                            Map<String, String> options = new HashMap<>();
+                            options.put("checksum", RxPChecksum.getName(preferredChecksum));
+                            options.put("mss", Integer.toString(maxMss));
+                            options.put("streams", Integer.toString(MAX_STREAMS));
+                            options.put("batch", "1");
+                            options.put("range", "1");
+                            options.put("delta", "1");
+                            if (preferredCompression != null) {
+                                options.put("compress", preferredCompression);
+                            }
+                            if (fecEnabled) {
+                                options.put("fec", "xor");
+                            }
+                            options.put("sack", "1");
+                            options.put("rwnd", "1");
+                            options.put("nak", "1");
+                            options.put("stripe", "1");
+                            options.put("stat", "1");
+                            if (preferredAckEvery > 1) {
+                                options.put("ackevery", Integer.toString(preferredAckEvery));
+                                options.put("ackdelay", Integer.toString(preferredAckDelay));
+                            }
+                            byte[] optionBytes = encodeOptions(options);
+                            byte[] hashChalData = Arrays.copyOf(hashedChal, hashedChal.length + optionBytes.length);
+                            System.arraycopy(optionBytes, 0, hashChalData, hashedChal.length, optionBytes.length);
+
+                            RxPHeader hashChalHeader = new RxPHeader(srcPort, connection.getDestPort(), 0);
                             hashChalHeader.setSYN(true);
-                            RxPPacket hashChalPkt = new RxPPacket(hashChalHeader, hashedChal);
+                            hashChalHeader.setTimestamp(RxPRttEstimator.timestamp());
+                            RxPPacket hashChalPkt = new RxPPacket(hashChalHeader, hashChalData);
                             hashChalPkt.updateChecksum();
 
                             byte[] hashChalPktBytes = hashChalPkt.getPacketByteArray();
-                            sendPkt = new DatagramPacket(hashChalPktBytes, hashChalPktBytes.length, destAddress, destPort);
+                            sendPkt = new DatagramPacket(hashChalPktBytes, hashChalPktBytes.length, connection.getAddress());
                         }
                     }
                 } else {
@@ -151,120 +334,483 @@ public class RxPAPI {
 
     /**
      * Method for server, for listening.
+     * Every packet from every client is received here. Handshakes and requests are answered right away,
+     * ACKs are passed on to the transfer for the client they come from, and files are sent on worker
+     * threads, so any number of clients can download at the same time.
      * @throws java.io.IOException
      */
     public void listen() throws IOException {
+        byte[] listenBuf = new byte[MAX_PACKET];
+        ByteBuffer listenBuffer = ByteBuffer.wrap(listenBuf);
+        DatagramPacket recvPkt = new DatagramPacket(listenBuf, listenBuf.length);
+        RxPCodec codec = new RxPCodec();
         while (true) {
-            //receive a client request
-            recvPkt = new DatagramPacket(new byte[ECHOMAX+28], ECHOMAX+28);
-            socket.receive(recvPkt);
-
-            byte[] recvd = new byte[recvPkt.getLength()];
-
-            recvd = Arrays.copyOfRange(recvPkt.getData(), 0, recvPkt.getLength());
-
-            RxPPacket recvdRxPPkt = new RxPPacket(recvd);
-            RxPHeader recvdHeader = recvdRxPPkt.getHeader();
-
-            //check for corruptions
-            if (recvdHeader.getChecksum() == recvdRxPPkt.calculateChecksum()) {
-                //check if it the client is trying to connect
-                if (recvdHeader.isSYN()) {
-                    if (recvdRxPPkt.getData() == null) {
-                        challenge = generateString(new Random(), 64);
-                        byte[] chalBytes = challenge.getBytes();
+            //receive a packet from any client
+            recvPkt.setLength(listenBuf.length);
+            try {
+                transport.receive(recvPkt);
+            } catch (IOException e) {
+                //the socket was closed, so let the workers end once their transfers are done
+                workers.shutdown();
+                throw e;
+            }
 
-                        RxPHeader chalHeader = new RxPHeader(srcPort, destPort, 0);
-                        RxPPacket chalPkt = new RxPPacket(chalHeader, chalBytes);
-                        chalPkt.updateChecksum();
+            InetSocketAddress from = (InetSocketAddress) recvPkt.getSocketAddress();
+            codec.wrap(listenBuffer, 0, recvPkt.getLength());
+            if (!codec.isValid()) {
+                continue;
+            }
 
-                        byte[] chalPktBytes = chalPkt.getPacketByteArray();
-                        sendPkt = new DatagramPacket(chalPktBytes, chalPktBytes.length, destAddress, destPort);
+            //check if it the client is trying to connect; handshake packets always use the default checksum
+            if (codec.isSYN()) {
+                codec.setChecksumType(RxPChecksum.CRC32);
+                if (codec.verifyChecksum()) {
+                    byte[] reply = handshake(from, new RxPPacket(Arrays.copyOfRange(listenBuf, 0, recvPkt.getLength())));
+                    transport.send(new DatagramPacket(reply, reply.length, from));
+                }
+            } else {
+                //otherwise the packet belongs to a connection that was already made
+                RxPConnection conn = connections.get(from);
+                if (conn == null) {
+                    continue;
+                }
+                codec.setChecksumType(conn.getChecksumType());
+                RxPStats stats = currentStats(conn);
+                stats.received(codec.getLength());
+                if (!codec.verifyChecksum()) {
+                    stats.checksumFailure();
+                    continue;
+                }
+                if (codec.isACK()) {
+                    //see inner class ServerSend below for how the window is moved
+                    ServerSend sender = conn.getSender(codec.getStream());
+                    if (sender != null) {
+                        sender.ack(codec);
+                    }
+                } else {
+                    //client is sending another request such as get or change window
+                    handleClient(conn, new RxPPacket(Arrays.copyOfRange(listenBuf, 0, recvPkt.getLength())));
+                }
+            }
+        }
+    }
 
-                        socket.send(sendPkt);
-                    } else {
-                        RxPHeader ackHeader = new RxPHeader(srcPort, destPort, 0);
-                        ackHeader.setACK(true);
+    /**
+     * Helper method for server that handles a client's handshake packet and returns the reply to send.
+     * @param from the address the packet came from.
+     * @param pkt the SYN packet received from the client.
+     */
+    private byte[] handshake(InetSocketAddress from, RxPPacket pkt) {
+        RxPHeader recvdHeader = pkt.getHeader();
+        if (pkt.getData() == null) {
+            //a new connection replaces any earlier one from the same client
+            RxPConnection conn = new RxPConnection(from, recvdHeader.getSourcePort(), DEFAULT_MSS);
+            RxPConnection old = connections.put(from, conn);
+            if (old != null) {
+                for (ServerSend sender : old.getSenders()) {
+                    sender.cancel();
+                }
+                old.unregisterMBeans();
+            }
+            conn.registerMBeans(srcPort);
+            conn.setChallenge(generateString(new Random(), 64));
+            byte[] chalBytes = conn.getChallenge().getBytes();
 
-                        RxPPacket ackPkt = new RxPPacket(ackHeader, null);
-                        ackPkt.updateChecksum();
+            RxPHeader chalHeader = new RxPHeader(srcPort, conn.getDestPort(), 0);
+            //echo the client's timestamp so it can measure the round trip time
+            chalHeader.setTimestamp(recvdHeader.getTimestamp());
+            RxPPacket chalPkt = new RxPPacket(chalHeader, chalBytes);
+            chalPkt.updateChecksum();
 
-                        byte[] ackPktBytes = ackPkt.getPacketByteArray();
-                        sendPkt = new DatagramPacket(ackPktBytes, ackPktBytes.length, destAddress, destPort);
+            return chalPkt.getPacketByteArray();
+        } else {
+            RxPConnection conn = connections.get(from);
+            if (conn == null) {
+                conn = new RxPConnection(from, recvdHeader.getSourcePort(), DEFAULT_MSS);
+                connections.put(from, conn);
+                conn.registerMBeans(srcPort);
+            }
 
-                        socket.send(sendPkt);
+            //accept the options the client offered after its 16 byte hash, if they are supported
+            Map<String, String> options = parseOptions(pkt.getData(), 16);
+            Map<String, String> accepted = new HashMap<>();
+            int offeredChecksum = options.containsKey("checksum") ? RxPChecksum.parse(options.get("checksum")) : -1;
+            if (offeredChecksum >= 0) {
+                accepted.put("checksum", RxPChecksum.getName(offeredChecksum));
+            }
+            //use the smaller of the two segment sizes
+            //an option written badly is treated as one the client did not offer
+            int offeredMss = DEFAULT_MSS;
+            Integer askedMss = intOption(options, "mss");
+            if (askedMss != null) {
+                offeredMss = Math.max(1, Math.min(askedMss, maxMss));
+                accepted.put("mss", Integer.toString(offeredMss));
+            }
+            //allow the smaller of the two numbers of streams
+            int offeredStreams = 1;
+            Integer askedStreams = intOption(options, "streams");
+            if (askedStreams != null) {
+                offeredStreams = Math.max(1, Math.min(askedStreams, MAX_STREAMS));
+                accepted.put("streams", Integer.toString(offeredStreams));
+            }
+            //several files can be sent in one transfer
+            if (options.containsKey("batch")) {
+                accepted.put("batch", "1");
+            }
+            //part of a file can be sent, to resume a download
+            if (options.containsKey("range")) {
+                accepted.put("range", "1");
+            }
+            //only the changes to a file can be sent, to a client with an older copy
+            if (options.containsKey("delta")) {
+                accepted.put("delta", "1");
+            }
+            //file data can be compressed with the first offered compressor this side has, unless packets are
+            //too small for a compressed segment to be worth its overhead
+            String offeredCompression = null;
+            if (options.containsKey("compress") && offeredMss >= MIN_COMPRESSED_MSS) {
+                for (String name : options.get("compress").split(",")) {
+                    if (RxPCompressor.exists(name)) {
+                        offeredCompression = name;
+                        accepted.put("compress", name);
+                        break;
                     }
-                //otherwise, client is sending another request such as get or change window
-                } else {
-                    handleClient(recvdRxPPkt);
                 }
             }
+            //parity packets can be added to transfers, to repair losses without sending packets again
+            boolean offeredFec = options.containsKey("fec") && Arrays.asList(options.get("fec").split(",")).contains("xor")
+                    && offeredMss >= MIN_FEC_MSS;
+            if (offeredFec) {
+                accepted.put("fec", "xor");
+            }
+            //the client's ACKs can list the packets it holds after a gap, so only the gaps are sent again
+            if (options.containsKey("sack")) {
+                accepted.put("sack", "1");
+            }
+            //the client's ACKs can carry how many packets it has room for, which the server does not send beyond
+            if (options.containsKey("rwnd")) {
+                accepted.put("rwnd", "1");
+            }
+            //the client can report a lost packet as soon as it is sure of it, so it is resent at once
+            if (options.containsKey("nak")) {
+                accepted.put("nak", "1");
+            }
+            //a file can be sent in stripes, each on a connection of its own and so on a worker thread of its own
+            if (options.containsKey("stripe")) {
+                accepted.put("stripe", "1");
+            }
+            //the size and modification time of a file can be asked for, so a resumed download can tell it changed
+            if (options.containsKey("stat")) {
+                accepted.put("stat", "1");
+            }
+            //the client can acknowledge several packets with one ACK, held back for a while, within this side's limits
+            int offeredAckEvery = 1;
+            int offeredAckDelay = 0;
+            Integer askedAckEvery = intOption(options, "ackevery");
+            Integer askedAckDelay = intOption(options, "ackdelay");
+            if (askedAckEvery != null && askedAckDelay != null) {
+                offeredAckEvery = Math.max(1, Math.min(askedAckEvery, MAX_ACK_EVERY));
+                offeredAckDelay = Math.max(0, Math.min(askedAckDelay, MAX_ACK_DELAY));
+                accepted.put("ackevery", Integer.toString(offeredAckEvery));
+                accepted.put("ackdelay", Integer.toString(offeredAckDelay));
+            }
+
+            RxPHeader ackHeader = new RxPHeader(srcPort, conn.getDestPort(), 0);
+            ackHeader.setACK(true);
+            ackHeader.setTimestamp(recvdHeader.getTimestamp());
+
+            RxPPacket ackPkt = new RxPPacket(ackHeader, accepted.isEmpty() ? null : encodeOptions(accepted));
+            ackPkt.updateChecksum();
+
+            //packets after the handshake use the negotiated checksum and segment size
+            conn.setChecksumType(offeredChecksum >= 0 ? offeredChecksum : RxPChecksum.CRC32);
+            conn.setMss(offeredMss);
+            conn.setMaxStreams(offeredStreams);
+            conn.setBatch(options.containsKey("batch"));
+            conn.setRange(options.containsKey("range"));
+            conn.setDelta(options.containsKey("delta"));
+            conn.setCompression(offeredCompression);
+            conn.setFec(offeredFec);
+            conn.setSack(options.containsKey("sack"));
+            conn.setRwnd(options.containsKey("rwnd"));
+            conn.setNak(options.containsKey("nak"));
+            conn.setStripe(options.containsKey("stripe"));
+            conn.setStat(options.containsKey("stat"));
+            conn.setAckPolicy(offeredAckEvery, offeredAckDelay);
+
+            return ackPkt.getPacketByteArray();
+        }
+    }
+
+    /**
+     * Helper method for server that changes a client's window size and returns the ACK to send, or null
+     * if the size is not a positive number, so the request is ignored.
+     * @param conn the connection of the client.
+     * @param pkt the window request received from the client.
+     * @param win the new window size, as the client wrote it.
+     */
+    private byte[] changeWindow(RxPConnection conn, RxPPacket pkt, String win) {
+        int size;
+        try {
+            size = Integer.parseInt(win);
+        } catch (NumberFormatException e) {
+            return null;
         }
+        if (size < 1) {
+            return null;
+        }
+        conn.setWindowSize(size);
+
+        RxPHeader ackHeader = new RxPHeader(srcPort, conn.getDestPort(), 0);
+        ackHeader.setACK(true);
+        ackHeader.setTimestamp(pkt.getHeader().getTimestamp());
+
+        RxPPacket ackPkt = new RxPPacket(ackHeader, null);
+        ackPkt.updateChecksum(conn.getChecksumType());
+
+        return ackPkt.getPacketByteArray();
     }
 
     /**
      * Helper method that handles a client's request.
+     * @param conn the connection of the client.
      * @param pkt the request packer received from the client.
      * @throws java.io.IOException
      */
-    public void handleClient(RxPPacket pkt) throws IOException {
+    public void handleClient(RxPConnection conn, RxPPacket pkt) throws IOException {
         byte[] data = pkt.getData();
         if (data != null) {
             String datastr = new String(data);
-            String[] dataArr = datastr.split(":");
+            String[] dataArr = datastr.split(":", 2);
             //if request is to change the window size
             if (dataArr[0].equals("window")) {
-                windowSize = Integer.parseInt(dataArr[1]);
+                byte[] ackPktBytes = changeWindow(conn, pkt, dataArr.length > 1 ? dataArr[1] : "");
+                if (ackPktBytes != null) {
+                    transport.send(new DatagramPacket(ackPktBytes, ackPktBytes.length, conn.getAddress()));
+                }
+            }
+            //if request is to download a file, part of one, or several files at once
+            if (isFileRequest(conn, dataArr[0])) {
+                //each download runs on the stream it was requested on, next to those on other streams
+                int stream = pkt.getHeader().getStream();
+                if (stream >= conn.getMaxStreams()) {
+                    return;
+                }
+                //the client sends the same request again until data arrives, so a repeat is not a new download
+                if (!conn.newRequest(stream, pkt.getHeader().getSequenceNumber())) {
+                    return;
+                }
+                if (conn.getSender(stream) != null) {
+                    conn.getSender(stream).cancel();
+                }
+                conn.setFileName(requestedName(dataArr[0], dataArr[1]));
 
-                RxPHeader ackHeader = new RxPHeader(srcPort, destPort, 0);
-                ackHeader.setACK(true);
+                //send the file on a worker thread; a window of 1 is stop-and-wait
+                ServerSend sender = new ServerSend(conn, stream, pkt.getHeader().getSequenceNumber(), dataArr[0], dataArr[1]);
+                conn.setSender(stream, sender);
+                workers.execute(sender);
+            }
+        }
+    }
 
-                RxPPacket ackPkt = new RxPPacket(ackHeader, null);
-                ackPkt.updateChecksum();
+    /**
+     * Method for server, for listening without blocking, as an alternative to listen().
+     * A single thread waits on a selector for packets to arrive, for room to send and for the earliest
+     * retransmission timer of any transfer, and drives every client's transfer from there. No thread is
+     * kept per transfer, and no exceptions are used to notice timeouts. Files are opened on the worker
+     * threads, since working out the signatures of a file or caching it reads the whole file, and each
+     * transfer joins the loop once its file is open.
+     * @throws java.io.IOException
+     */
+    public void eventLoop() throws IOException {
+        channel = transport.getChannel();
+        if (channel == null) {
+            throw new IOException("The transport cannot be used without blocking.");
+        }
+        channel.configureBlocking(false);
+        Selector selector = Selector.open();
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
 
-                byte[] ackPktBytes = ackPkt.getPacketByteArray();
-                sendPkt = new DatagramPacket(ackPktBytes, ackPktBytes.length, destAddress, destPort);
+        ByteBuffer recvBuffer = ByteBuffer.allocateDirect(MAX_PACKET);
+        RxPCodec codec = new RxPCodec();
+        //the transfers running for each client, by stream
+        Map<InetSocketAddress, Map<Integer, EventLoopSend>> transfers = new HashMap<>();
+        //transfers whose files were opened on a worker thread, waiting to join the loop
+        final Queue<EventLoopSend> opened = new ConcurrentLinkedQueue<>();
 
-                socket.send(sendPkt);
+        while (true) {
+            //start the transfers whose files are open, unless the client has connected again or made a newer
+            //request on the same stream meanwhile
+            EventLoopSend ready;
+            while ((ready = opened.poll()) != null) {
+                RxPConnection conn = ready.getConnection();
+                if (connections.get(conn.getAddress()) != conn || !conn.isLatestRequest(ready.getStream(), ready.getRequest())) {
+                    ready.close();
+                    continue;
+                }
+                Map<Integer, EventLoopSend> clientTransfers = transfers.get(conn.getAddress());
+                if (clientTransfers == null) {
+                    clientTransfers = new HashMap<>();
+                    transfers.put(conn.getAddress(), clientTransfers);
+                }
+                EventLoopSend old = clientTransfers.put(ready.getStream(), ready);
+                if (old != null) {
+                    old.close();
+                }
             }
-            //if request is to download a file
-            if (dataArr[0].equals("get")) {
-                fileName = dataArr[1];
-                if (windowSize == 1) {
-                    //send file directly if stop-and-wait
-                    sendFile(dataArr[1]);
-                } else {
-                    //start thread if window greater than 1
-                    Thread t = new Thread(new ServerSend());
-                    t.start();
 
-                    while (t.isAlive()) {
-                        //keep receiving ACK packets while thread is sending file
-                        recvPkt = new DatagramPacket(new byte[ECHOMAX + 28], ECHOMAX + 28);
-                        socket.receive(recvPkt);
+            //send what the windows allow and handle timers that ran out
+            long now = System.currentTimeMillis();
+            long nextDeadline = Long.MAX_VALUE;
+            boolean blocked = false;
+            for (Map<Integer, EventLoopSend> clientTransfers : transfers.values()) {
+                Iterator<EventLoopSend> it = clientTransfers.values().iterator();
+                while (it.hasNext()) {
+                    EventLoopSend transfer = it.next();
+                    if (!transfer.service(now)) {
+                        transfer.close();
+                        it.remove();
+                    } else {
+                        nextDeadline = Math.min(nextDeadline, transfer.getDeadline());
+                        blocked |= transfer.isBlocked();
+                    }
+                }
+            }
+            //only ask to be told about room to send while a transfer is waiting for it
+            key.interestOps(blocked ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
 
-                        byte[] recvd = new byte[recvPkt.getLength()];
+            //wait for packets, room to send, a chunk of a file to be read or the earliest timer
+            if (nextDeadline == Long.MAX_VALUE) {
+                selector.select();
+            } else {
+                selector.select(Math.max(1, nextDeadline - System.currentTimeMillis()));
+            }
+            selector.selectedKeys().clear();
 
-                        recvd = Arrays.copyOfRange(recvPkt.getData(), 0, recvPkt.getLength());
+            //read every packet that has arrived
+            while (true) {
+                recvBuffer.clear();
+                InetSocketAddress from = (InetSocketAddress) channel.receive(recvBuffer);
+                if (from == null) {
+                    break;
+                }
+                recvBuffer.flip();
+                codec.wrap(recvBuffer);
+                if (!codec.isValid()) {
+                    continue;
+                }
 
-                        RxPPacket recvdRxPPkt = new RxPPacket(recvd);
-                        RxPHeader recvdHeader = recvdRxPPkt.getHeader();
-                        int sqNum = recvdHeader.getSequenceNumber();
-                        synchronized (lock) {
-                            if ((currentSeqNumStart <= sqNum) && (sqNum < currentSeqNumStart + currentWindowSize)) {
-                                //fill array for which packets in current window were received so the server knows
-                                //see inner class ServerSend below for when server checks this
-                                recvdPktArr[sqNum % windowSize] = true;
+                //check if it the client is trying to connect; handshake packets always use the default checksum
+                if (codec.isSYN()) {
+                    codec.setChecksumType(RxPChecksum.CRC32);
+                    if (codec.verifyChecksum()) {
+                        RxPPacket pkt = new RxPPacket(copyPacket(codec));
+                        if (pkt.getData() == null) {
+                            //a new connection stops the client's earlier transfers
+                            Map<Integer, EventLoopSend> old = transfers.remove(from);
+                            if (old != null) {
+                                for (EventLoopSend transfer : old.values()) {
+                                    transfer.close();
+                                }
                             }
                         }
+                        channel.send(ByteBuffer.wrap(handshake(from, pkt)), from);
+                    }
+                    continue;
+                }
+
+                //otherwise the packet belongs to a connection that was already made
+                RxPConnection conn = connections.get(from);
+                if (conn == null) {
+                    continue;
+                }
+                codec.setChecksumType(conn.getChecksumType());
+                RxPStats stats = currentStats(conn);
+                stats.received(codec.getLength());
+                if (!codec.verifyChecksum()) {
+                    stats.checksumFailure();
+                    continue;
+                }
+                Map<Integer, EventLoopSend> clientTransfers = transfers.get(from);
+                if (clientTransfers == null) {
+                    clientTransfers = new HashMap<>();
+                    transfers.put(from, clientTransfers);
+                }
+                int stream = codec.getStream();
+                EventLoopSend transfer = clientTransfers.get(stream);
+                if (codec.isACK()) {
+                    if (transfer != null) {
+                        transfer.ack(codec);
+                    }
+                    continue;
+                }
+
+                //client is sending another request such as get or change window
+                RxPPacket pkt = new RxPPacket(copyPacket(codec));
+                if (pkt.getData() == null) {
+                    continue;
+                }
+                String[] dataArr = new String(pkt.getData()).split(":", 2);
+                if (dataArr[0].equals("window")) {
+                    byte[] ackPktBytes = changeWindow(conn, pkt, dataArr.length > 1 ? dataArr[1] : "");
+                    if (ackPktBytes != null) {
+                        channel.send(ByteBuffer.wrap(ackPktBytes), from);
                     }
+                } else if (isFileRequest(conn, dataArr[0]) && stream < conn.getMaxStreams()) {
+                    //the client sends the same request again until data arrives, so a repeat is not a new download
+                    if (!conn.newRequest(stream, pkt.getHeader().getSequenceNumber())) {
+                        continue;
+                    }
+                    if (transfer != null) {
+                        transfer.close();
+                        clientTransfers.remove(stream);
+                    }
+                    conn.setFileName(requestedName(dataArr[0], dataArr[1]));
+                    workers.execute(openTransfer(conn, stream, pkt.getHeader().getSequenceNumber(), dataArr[0], dataArr[1],
+                            selector, opened));
                 }
-                //return sequence number back to 0 after request is complete
-                sequenceNum = 0;
             }
         }
     }
 
+    /**
+     * Helper method for server that returns a task opening the file of a request for the event loop, off the
+     * loop's thread, and handing the transfer back to it once the file is open.
+     * @param conn the connection of the client.
+     * @param stream the stream the file is sent on.
+     * @param request the number of the client's request.
+     * @param command get, range, stripe, stat, mget, sums or blocks.
+     * @param argument the name of the file to send, or the rest of the request.
+     * @param selector the event loop's selector, woken up when the transfer is ready.
+     * @param opened where the transfer is handed to the event loop.
+     */
+    private Runnable openTransfer(final RxPConnection conn, final int stream, final int request, final String command,
+                                  final String argument, final Selector selector, final Queue<EventLoopSend> opened) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    opened.add(new EventLoopSend(conn, stream, request, command, argument, selector));
+                    selector.wakeup();
+                } catch (NoSuchFileException e) {
+                    System.out.println("File Not Found");
+                } catch (IOException e) {
+                    System.out.println("File error.");
+                }
+            }
+        };
+    }
+
+    /**
+     * Helper method that copies the packet a codec is pointing at into a new array.
+     * @param codec the codec pointing at the packet.
+     */
+    private byte[] copyPacket(RxPCodec codec) {
+        byte[] bytes = new byte[codec.getLength()];
+        codec.getPacket(bytes, 0);
+        return bytes;
+    }
+
     /**
      * Method for client, called when trying to update the window size.
      * @param win the window size as a String.
@@ -274,135 +820,179 @@ public class RxPAPI {
         if (!connected) {
             System.out.println("No connection established. Try to connect first.");
         } else {
+            //the reply is read here, so no download may be reading packets at the same time
+            synchronized (receiveLock) {
+                if (receiving || !streams.isEmpty()) {
+                    System.out.println("The window size can only be changed while no file is being downloaded.");
+                    return;
+                }
+                receiving = true;
+                changingWindow = true;
+            }
             try {
                 Integer.parseInt(win);
-                RxPHeader winHeader = new RxPHeader(srcPort, destPort, 0);
+                RxPRttEstimator rtt = connection.getRtt();
+                RxPHeader winHeader = new RxPHeader(srcPort, connection.getDestPort(), 0);
+                winHeader.setTimestamp(RxPRttEstimator.timestamp());
 
                 String winstr = "window:" + win;
                 RxPPacket winPkt = new RxPPacket(winHeader, winstr.getBytes());
-                winPkt.updateChecksum();
+                winPkt.updateChecksum(connection.getChecksumType());
 
                 byte[] winPktBytes = winPkt.getPacketByteArray();
-                sendPkt = new DatagramPacket(winPktBytes, winPktBytes.length, destAddress, destPort);
+                DatagramPacket sendPkt = new DatagramPacket(winPktBytes, winPktBytes.length, connection.getAddress());
+                DatagramPacket recvPkt = new DatagramPacket(new byte[MAX_PACKET], MAX_PACKET);
                 boolean recvdResponse = false;
+                int tries = 0;
                 //keep sending window size to server until it receives it
                 do {
-                    socket.send(sendPkt);
+                    transport.send(sendPkt);
                     try {
-                        recvPkt = new DatagramPacket(new byte[ECHOMAX + 28], ECHOMAX + 28);
-                        socket.receive(recvPkt);
+                        recvPkt.setLength(MAX_PACKET);
+                        transport.receive(recvPkt);
                         recvdResponse = true;
                     } catch (InterruptedIOException e) {
                         //tries sending packet again
+                        tries++;
                     }
                 } while (!recvdResponse);
 
-                windowSize = Integer.parseInt(win);
+                //the server echoes our timestamp; only sample if the request was not resent (Karn's rule)
+                RxPHeader recvdHeader = new RxPPacket(Arrays.copyOfRange(recvPkt.getData(), 0, recvPkt.getLength())).getHeader();
+                if (tries == 0 && recvdHeader.isACK()) {
+                    int sample = rtt.sampleEcho(recvdHeader.getTimestamp());
+                    if (sample >= 0) {
+                        connection.getStats().rtt(sample);
+                    }
+                    transport.setSoTimeout(rtt.getRtoMillis());
+                }
+
+                connection.setWindowSize(Integer.parseInt(win));
                 System.out.println("Window size changed to " + win + ".");
             } catch (NumberFormatException e) {
                 //check if valid integer was passed in
                 System.out.println("Please enter an integer as the window size.");
+            } finally {
+                synchronized (receiveLock) {
+                    receiving = false;
+                    changingWindow = false;
+                    receiveLock.notifyAll();
+                }
             }
         }
     }
 
     /**
      * Method for client, called when trying to download a file from the server.
+     * Each download runs on a stream of its own, so several threads can download at the same time over
+     * one connection, and a small file is not held up behind a large one. The thread whose turn it is
+     * receives the packets of every stream and hands the turn on once its own download is done.
+     * If the client has an older copy of the file, only the blocks that changed are downloaded.
      * @param filename the name of the file to download.
      * @throws java.io.IOException
      */
     public void recvFrom(String filename) throws IOException {
+        recvFrom(filename, 0, -1);
+    }
+
+    /**
+     * Method for client, called when trying to download part of a file from the server.
+     * The part is written at the same position in the received file. If the server agreed to send parts
+     * of files, a checkpoint of how much has reached the disk is kept next to the received file, and a
+     * download of the same part that was interrupted carries on from there.
+     * @param filename the name of the file to download.
+     * @param offset the position of the first byte to download.
+     * @param length the number of bytes to download, or -1 for the rest of the file.
+     * @throws java.io.IOException
+     */
+    public void recvFrom(String filename, long offset, long length) throws IOException {
         if (!connected) {
             System.out.println("No connection established. Try to connect first.");
+        } else if ((offset != 0 || length >= 0) && !connection.isRange()) {
+            System.out.println("The server cannot send part of a file.");
         } else {
             File f = new File(filename);
             if (f.exists()) {
-                fileName = filename;
-                RxPHeader getHeader = new RxPHeader(srcPort, destPort, 0);
-
-                String getstr = "get:" + filename;
-                RxPPacket getPkt = new RxPPacket(getHeader, getstr.getBytes());
-                getPkt.updateChecksum();
-
-                byte[] getPktBytes = getPkt.getPacketByteArray();
-                sendPkt = new DatagramPacket(getPktBytes, getPktBytes.length, destAddress, destPort);
-
-                System.out.println("Attempting file retrieval...");
-                boolean endOfFile = false;
-                //keep receiving until final packet is received
-                while (!endOfFile) {
-                    boolean recvdResponse = false;
-                    //keep sending until a message is received
-                    do {
-                        socket.send(sendPkt);
-                        try {
-                            recvPkt = new DatagramPacket(new byte[ECHOMAX + 28], ECHOMAX + 28);
-                            socket.receive(recvPkt);
-                            recvdResponse = true;
-                        } catch (InterruptedIOException e) {
-                            //tries sending packet again
-                        }
-                    } while (!recvdResponse);
-
-                    //read received message
-                    byte[] recvd = new byte[recvPkt.getLength()];
-
-                    recvd = Arrays.copyOfRange(recvPkt.getData(), 0, recvPkt.getLength());
-
-                    RxPPacket recvdRxPPkt = new RxPPacket(recvd);
-                    RxPHeader recvdHeader = recvdRxPPkt.getHeader();
-
-                    //check message for corruption
-                    if (recvdHeader.getChecksum() == recvdRxPPkt.calculateChecksum()) {
-                        //check sequence number
-                        if (recvdHeader.getSequenceNumber() == sequenceNum) {
-                            //check if final packet
-                            if (recvdHeader.isFIN()) {
-                                endOfFile = true;
-                            }
-                            pktRecvBuff.add(recvdRxPPkt);
-
-                            RxPHeader ackHeader = new RxPHeader(srcPort, destPort, 0);
-                            ackHeader.setACK(true);
-                            ackHeader.setSequenceNumber(sequenceNum);
-
-                            RxPPacket ackPkt = new RxPPacket(ackHeader, null);
-                            ackPkt.updateChecksum();
-
-                            byte[] ackPktBytes = ackPkt.getPacketByteArray();
-                            sendPkt = new DatagramPacket(ackPktBytes, ackPktBytes.length, destAddress, destPort);
-
-                            //increment sequence number for receiving next packet
-                            sequenceNum++;
+                connection.setFileName(filename);
+                String received = receivedName(filename);
+
+                //carry on from where an interrupted download of the same part stopped, as long as the file has
+                //not changed on the server since
+                RxPCheckpoint checkpoint = null;
+                long resumeAt = 0;
+                boolean versionPending = false;
+                if (connection.isRange()) {
+                    checkpoint = RxPCheckpoint.load(received);
+                    if (checkpoint != null && checkpoint.isFor(filename, offset, length)) {
+                        String version = fileVersion(filename, received);
+                        if (checkpoint.isVersion(version)) {
+                            resumeAt = checkpoint.getReceived();
+                        } else {
+                            System.out.println("File " + filename + " changed since its download was interrupted; starting again.");
+                            checkpoint = new RxPCheckpoint(received, filename, offset, length, version);
                         }
+                    } else {
+                        //a new download asks for the version of the file next to its data, on a stream of its own
+                        checkpoint = new RxPCheckpoint(received, filename, offset, length, null);
+                        versionPending = connection.isStat();
                     }
                 }
-
-                //send final ACK packet
-                socket.send(sendPkt);
-
-                //place received file in stream
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                for (RxPPacket pkt : pktRecvBuff) {
-                    if (pkt.getData() != null) {
-                        baos.write(pkt.getData());
+                boolean whole = offset == 0 && length < 0 && resumeAt == 0;
+
+                //with an older copy of the file, from an earlier download or under the same name, only the
+                //changes are downloaded
+                if (whole && deltaEnabled && connection.isDelta()) {
+                    Path basis = Files.isRegularFile(Paths.get(received)) ? Paths.get(received) : f.toPath();
+                    if (recvDelta(filename, basis, received)) {
+                        if (checkpoint != null) {
+                            checkpoint.delete();
+                        }
+                        System.out.println("File " + filename + " was downloaded successfully.");
+                        return;
                     }
                 }
 
-                //create received file
+                //create the received file up front so packets can be written to it as they arrive;
+                //it is only emptied first when the whole file is downloaded from the start
+                FileChannel fileChannel;
                 try {
-                    String[] newfile = fileName.split("\\.");
-                    FileOutputStream fileOutputStream = new FileOutputStream(newfile[0] + "1." + newfile[1]);
-                    fileOutputStream.write(baos.toByteArray());
-                    fileOutputStream.close();
-                    System.out.println("File was downloaded successfully.");
-                } catch (java.io.FileNotFoundException e) {
-                    System.out.println("File was not found.");
+                    fileChannel = whole ? FileChannel.open(Paths.get(received), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                            : FileChannel.open(Paths.get(received), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    fileChannel.position(offset + resumeAt);
+                    if (checkpoint != null) {
+                        checkpoint.save();
+                    }
                 } catch (IOException e) {
-                    System.out.println("Error writing file.");
+                    System.out.println("File was not found.");
+                    return;
+                }
+
+                String request = "get:" + filename;
+                if (!whole) {
+                    request = "range:" + (offset + resumeAt) + ":" + (length < 0 ? -1 : length - resumeAt) + ":" + filename;
+                }
+                if (resumeAt > 0) {
+                    System.out.println("Resuming " + filename + " at byte " + (offset + resumeAt) + "...");
+                } else {
+                    System.out.println("Attempting file retrieval...");
+                }
+                //with a single stream the version is asked for first, as the data would leave no stream for it
+                Path versionPath = Paths.get(received + ".stat");
+                ClientStream versionStream = null;
+                if (versionPending && connection.getMaxStreams() > 1) {
+                    versionStream = requestVersion(filename, versionPath);
+                } else if (versionPending) {
+                    checkpoint.setVersion(readVersion(requestVersion(filename, versionPath), versionPath));
+                }
+                ClientStream stream = openStream(request, fileChannel, null, null, checkpoint);
+                if (versionStream != null) {
+                    checkpoint.setVersion(readVersion(versionStream, versionPath));
+                }
+                receiveUntilDone(stream);
+                if (!stream.failed) {
+                    System.out.println("File " + filename + " was downloaded successfully.");
                 }
-                pktRecvBuff.clear();
-                sequenceNum = 0;
             } else {
                 System.out.println("The file does not exist.");
             }
@@ -410,135 +1000,926 @@ public class RxPAPI {
     }
 
     /**
-     * Helper method for server to use when sending a file requested by the client
-     * @param filename the name of the file to send
+     * Method for client, called when trying to download a large file from the server in stripes.
+     * The file is split into blocks, and every stripes-th block makes up a stripe. The first stripe is sent
+     * on this connection and each of the others on a connection of its own, from a socket of its own, so
+     * every stripe has its own window and sending thread on the server and its own receiving thread here,
+     * and a large file is not limited to what one window and one thread on either side can do. Each stripe
+     * is written at its place in the received file.
+     * @param filename the name of the file to download.
+     * @param stripes the number of stripes, at most 16.
      * @throws java.io.IOException
      */
-    public void sendFile(String filename) throws IOException {
-        File file = new File(filename);
-        byte[] fileArray = new byte[(int)file.length()];
-
-        try {
-            FileInputStream fileInputStream = new FileInputStream(file);
-            fileInputStream.read(fileArray);
-
-            byte[] filePacket;
-            if (fileArray.length < ECHOMAX) {
-                filePacket = new byte[fileArray.length];
-            } else {
-                filePacket = new byte[ECHOMAX];
+    public void recvStriped(final String filename, int stripes) throws IOException {
+        if (!connected) {
+            System.out.println("No connection established. Try to connect first.");
+        } else if (stripes <= 1 || !connection.isStripe()) {
+            if (stripes > 1) {
+                System.out.println("The server cannot send a file in stripes.");
+            }
+            recvFrom(filename);
+        } else if (!new File(filename).exists()) {
+            System.out.println("The file does not exist.");
+        } else {
+            connection.setFileName(filename);
+            final int count = Math.min(stripes, MAX_STREAMS);
+            final FileChannel fileChannel;
+            try {
+                fileChannel = FileChannel.open(Paths.get(receivedName(filename)), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException e) {
+                System.out.println("File was not found.");
+                return;
             }
-            int count = fileArray.length;
-            int pos = 0;
-            //check if entire file has been sent or not
-            while (count > 0) {
-                //check whether there are at least 255 bytes left to send
-                if (count/255 >= 1) {
-                    for (int i = 0; i < 255; i++) {
-                        filePacket[i] = fileArray[pos];
-                        pos++;
-                    }
-
-                    RxPHeader header = new RxPHeader(srcPort, destPort, sequenceNum);
-                    if (count == 255) {
-                        header.setFIN(true);
-                    }
-                    RxPPacket filePkt = new RxPPacket(header, filePacket);
-                    filePkt.updateChecksum();
-                    byte[] ackPktBytes = filePkt.getPacketByteArray();
-                    sendPkt = new DatagramPacket(ackPktBytes, ackPktBytes.length, destAddress, destPort);
-                    socket.send(sendPkt);
-
-                    recvPkt = new DatagramPacket(new byte[ECHOMAX + 28], ECHOMAX + 28);
-                    socket.receive(recvPkt);
-
-                    byte[] recvd = new byte[recvPkt.getLength()];
-
-                    recvd = Arrays.copyOfRange(recvPkt.getData(), 0, recvPkt.getLength());
 
-                    RxPPacket recvdRxPPkt = new RxPPacket(recvd);
-                    RxPHeader recvdHeader = recvdRxPPkt.getHeader();
-                    if (recvdHeader.isACK() && recvdHeader.getSequenceNumber() == sequenceNum) {
-                        //updates if sequenceNumber of ACK packet is correct
-                        sequenceNum++;
-                        count = count - 255;
-                    } else {
-                        //otherwise try sending same packet again
-                        pos -= 255;
+            final RxPAPI[] owners = stripeConnections(count);
+            System.out.println("Attempting file retrieval in " + count + " stripes...");
+            //every stripe but the first is received on a thread of its own
+            final boolean[] received = new boolean[count];
+            Thread[] threads = new Thread[count];
+            for (int i = 1; i < count; i++) {
+                final int index = i;
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            received[index] = owners[index].recvStripe(filename, index, count, fileChannel);
+                        } catch (IOException e) {
+                            System.out.println("Error downloading stripe " + index + " of " + filename + ".");
+                        }
                     }
-                //final packet may be less than 255 bytes
-                } else {
-                    int src = (fileArray.length/255) * 255;
-                    int dest = fileArray.length - src;
-                    filePacket = new byte[dest];
-                    System.arraycopy(fileArray,src,filePacket, 0, dest);
-                    RxPHeader header = new RxPHeader(srcPort, destPort, sequenceNum);
-                    //final packet's FIN bit is true
-                    header.setFIN(true);
-                    RxPPacket filePkt = new RxPPacket(header, filePacket);
-                    filePkt.updateChecksum();
-                    byte[] ackPktBytes = filePkt.getPacketByteArray();
-                    sendPkt = new DatagramPacket(ackPktBytes, ackPktBytes.length, destAddress, destPort);
-                    socket.send(sendPkt);
-
-                    recvPkt = new DatagramPacket(new byte[ECHOMAX+28], ECHOMAX+28);
-                    socket.receive(recvPkt);
-
-                    byte[] recvd = new byte[recvPkt.getLength()];
-
-                    recvd = Arrays.copyOfRange(recvPkt.getData(), 0, recvPkt.getLength());
-
-                    RxPPacket recvdRxPPkt = new RxPPacket(recvd);
-                    RxPHeader recvdHeader = recvdRxPPkt.getHeader();
-                    if (!recvdHeader.isACK() || recvdHeader.getSequenceNumber() == sequenceNum) {
-                        //updates if sequenceNumber of last ACK packet is correct
-                        count = 0;
-                        sequenceNum++;
+                });
+                threads[i].start();
+            }
+            try {
+                received[0] = recvStripe(filename, 0, count, fileChannel);
+            } finally {
+                for (int i = 1; i < count; i++) {
+                    try {
+                        threads[i].join();
+                    } catch (InterruptedException e) {
+                        //...
                     }
                 }
+                fileChannel.close();
+            }
+            boolean failed = false;
+            for (boolean stripe : received) {
+                failed |= !stripe;
+            }
+            if (!failed) {
+                System.out.println("File " + filename + " was downloaded successfully.");
             }
-            fileInputStream.close();
-        } catch (FileNotFoundException e) {
-            System.out.println("File Not Found");
-        } catch (IOException e) {
-            System.out.println("File error.");
         }
-
     }
 
     /**
-     * Method for client, called when trying to disconnect from the server.
+     * Helper method for client that returns the connection each stripe of a file is downloaded on: this
+     * one for the first, and one of the connections kept for stripes for each of the others. Connections
+     * that are missing are made, and they all get this connection's window size. A stripe whose
+     * connection cannot be made goes on a stream of this connection instead.
+     * @param count the number of stripes.
+     * @throws java.io.IOException
      */
-    public void close() {
-        if (!connected) {
-            System.out.println("You haven't connected yet.");
-        } else {
-            //close connection
-            connected = false;
-            System.out.println("Disconnected from server.");
+    private RxPAPI[] stripeConnections(int count) throws IOException {
+        RxPAPI[] owners = new RxPAPI[count];
+        owners[0] = this;
+        synchronized (stripeConnections) {
+            for (int i = 1; i < count; i++) {
+                if (stripeConnections.size() < i) {
+                    RxPAPI stripeConnection = openStripeConnection();
+                    if (stripeConnection == null) {
+                        break;
+                    }
+                    stripeConnections.add(stripeConnection);
+                }
+                owners[i] = stripeConnections.get(i - 1);
+            }
+        }
+        for (int i = 1; i < count; i++) {
+            if (owners[i] == null) {
+                owners[i] = this;
+            } else if (owners[i].connection.getWindowSize() != connection.getWindowSize()) {
+                owners[i].updateWindow(Integer.toString(connection.getWindowSize()));
+            }
         }
+        return owners;
     }
 
     /**
-     * Helper method to generate random string for establishing a connection.
-     * @param rng
-     * @param length the length of the string
+     * Helper method for client that connects to the server again from a socket of its own, with the same
+     * options as this connection, for the stripes of a file. Returns null if the connection cannot be made.
+     * @throws java.io.IOException
      */
-    public String generateString(Random rng, int length) {
-        char[] text = new char[length];
-        String characters = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";//,.-#'?!";
-        for (int i = 0; i < length; i++) {
-            text[i] = characters.charAt(rng.nextInt(characters.length()));
+    private RxPAPI openStripeConnection() throws IOException {
+        InetSocketAddress server = connection.getAddress();
+        RxPAPI stripeConnection = new RxPAPI(transport.openSibling(), server.getAddress(), server.getPort(), true);
+        stripeConnection.preferredChecksum = preferredChecksum;
+        stripeConnection.preferredCompression = preferredCompression;
+        stripeConnection.fecEnabled = fecEnabled;
+        stripeConnection.preferredAckEvery = preferredAckEvery;
+        stripeConnection.preferredAckDelay = preferredAckDelay;
+        stripeConnection.maxMss = maxMss;
+        stripeConnection.createConnection();
+        if (!stripeConnection.connected || !stripeConnection.connection.isStripe()) {
+            stripeConnection.transport.close();
+            return null;
         }
-        return new String(text);
+        return stripeConnection;
     }
 
     /**
-     * Helper method to generate an MD5 hash for establishing a connection.
-     * @param bytesToDigest bytes that need to be hashed.
+     * Helper method for client that downloads one stripe of a file on this connection and waits until it
+     * is done.
+     * @param filename the name of the file on the server.
+     * @param index the index of the stripe, from 0.
+     * @param count the number of stripes.
+     * @param fileChannel the received file, shared by every stripe.
+     * @throws java.io.IOException
      */
-    public byte[] md5(byte[] bytesToDigest) {
-        try {
+    private boolean recvStripe(String filename, int index, int count, FileChannel fileChannel) throws IOException {
+        RxPStripeWriter stripe = new RxPStripeWriter(fileChannel, index, count, STRIPE_BLOCK);
+        ClientStream stream = openStream("stripe:" + index + ":" + count + ":" + STRIPE_BLOCK + ":" + filename,
+                null, null, stripe, null);
+        receiveUntilDone(stream);
+        return !stream.failed;
+    }
+
+    /**
+     * Helper method for client that downloads only what changed in a file since an older copy. The server
+     * sends the signatures of its blocks, the blocks found in the older copy are taken from there, and
+     * the rest are asked for in requests that each fit in a packet. Returns false, so the whole file is
+     * downloaded instead, if the new file cannot be put together.
+     * @param filename the name of the file to download.
+     * @param basis the older copy.
+     * @param received the name the new file is saved under, which may be the older copy itself.
+     * @throws java.io.IOException
+     */
+    private boolean recvDelta(String filename, Path basis, String received) throws IOException {
+        Path sums = Paths.get(received + ".sums");
+        Path changes = Paths.get(received + ".changes");
+        Path target = Paths.get(received + ".new");
+        try {
+            System.out.println("Comparing " + filename + " with " + basis + "...");
+            if (!download("sums:" + filename, sums, false)) {
+                return false;
+            }
+            RxPDelta delta = new RxPDelta(Files.readAllBytes(sums));
+            delta.match(basis);
+
+            //the missing parts are appended one after another
+            Files.deleteIfExists(changes);
+            Files.createFile(changes);
+            long missingBytes = 0;
+            String prefix = "blocks:" + filename + "\n";
+            StringBuilder request = new StringBuilder(prefix);
+            List<long[]> missing = delta.getMissing();
+            for (int i = 0; i < missing.size(); i++) {
+                String line = missing.get(i)[0] + ":" + missing.get(i)[1] + "\n";
+                missingBytes += missing.get(i)[1];
+                if (request.length() > prefix.length() && request.length() + line.length() > connection.getMss()) {
+                    if (!download(request.toString(), changes, true)) {
+                        return false;
+                    }
+                    request.setLength(prefix.length());
+                }
+                request.append(line);
+            }
+            if (request.length() > prefix.length() && !download(request.toString(), changes, true)) {
+                return false;
+            }
+
+            if (!delta.assemble(basis, changes, target)) {
+                System.out.println("File " + filename + " changed while it was downloaded; downloading it whole.");
+                return false;
+            }
+            Files.move(target, Paths.get(received), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println((delta.getFileSize() - missingBytes) + " of " + delta.getFileSize()
+                    + " bytes were found in " + basis + ".");
+            return true;
+        } catch (IOException e) {
+            System.out.println("Could not compare with " + basis + "; downloading the whole file.");
+            return false;
+        } finally {
+            Files.deleteIfExists(sums);
+            Files.deleteIfExists(changes);
+            Files.deleteIfExists(target);
+        }
+    }
+
+    /**
+     * Helper method for client that asks the server for the size and modification time of a file, which a
+     * checkpoint is saved with, so a download is only resumed onto the same version of the file. Returns
+     * null if the server does not tell them.
+     * @param filename the name of the file on the server.
+     * @param received the name the file is saved under.
+     * @throws java.io.IOException
+     */
+    private String fileVersion(String filename, String received) throws IOException {
+        if (!connection.isStat()) {
+            return null;
+        }
+        Path path = Paths.get(received + ".stat");
+        return readVersion(requestVersion(filename, path), path);
+    }
+
+    /**
+     * Helper method for client that asks the server for the size and modification time of a file, without
+     * waiting for them.
+     * @param filename the name of the file on the server.
+     * @param path the file they are written to.
+     * @throws java.io.IOException
+     */
+    private ClientStream requestVersion(String filename, Path path) throws IOException {
+        FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return openStream("stat:" + filename, fileChannel, null, null, null);
+    }
+
+    /**
+     * Helper method for client that waits for the size and modification time of a file asked for with
+     * requestVersion(), and returns them, or null if they did not arrive.
+     * @param stream the download of the version.
+     * @param path the file they are written to, which is removed afterwards.
+     * @throws java.io.IOException
+     */
+    private String readVersion(ClientStream stream, Path path) throws IOException {
+        try {
+            receiveUntilDone(stream);
+            return stream.failed ? null : new String(Files.readAllBytes(path));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Helper method for client that downloads what a request asks for into a file and waits until it is done.
+     * @param request the request.
+     * @param path the file to write to.
+     * @param append whether to add to the end of the file rather than replace it.
+     * @throws java.io.IOException
+     */
+    private boolean download(String request, Path path, boolean append) throws IOException {
+        FileChannel fileChannel = append
+                ? FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                : FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ClientStream stream = openStream(request, fileChannel, null, null, null);
+        receiveUntilDone(stream);
+        return !stream.failed;
+    }
+
+    /**
+     * Method for client, called when trying to download several files from the server at once.
+     * The server sends a manifest of the files followed by their contents one after another, in a single
+     * transfer, so small files share packets and the whole set costs one request and one final packet.
+     * @param names the names of the files, directories whose files are all downloaded, and patterns such
+     * as dir/*.txt matching files in one directory.
+     * @throws java.io.IOException
+     */
+    public void recvBatch(String[] names) throws IOException {
+        if (!connected) {
+            System.out.println("No connection established. Try to connect first.");
+        } else if (!connection.isBatch()) {
+            System.out.println("The server cannot send several files at once.");
+        } else {
+            StringBuilder request = new StringBuilder("mget:");
+            for (int i = 0; i < names.length; i++) {
+                request.append(i > 0 ? "\n" : "").append(names[i]);
+            }
+            connection.setFileName(String.join(" ", names));
+
+            System.out.println("Attempting file retrieval...");
+            RxPBatchWriter batch = new RxPBatchWriter();
+            ClientStream stream = openStream(request.toString(), null, batch, null, null);
+            receiveUntilDone(stream);
+            if (!stream.failed) {
+                System.out.println(batch.getFileCount() + " files were downloaded successfully.");
+            }
+        }
+    }
+
+    /**
+     * Helper method for client that returns the name a downloaded file is saved under, which is the
+     * name with a 1 before its extension, so a client next to the server does not overwrite the original.
+     * @param filename the name of the file on the server.
+     */
+    static String receivedName(String filename) {
+        int dot = filename.lastIndexOf('.');
+        if (dot <= filename.lastIndexOf('/') + 1) {
+            return filename + "1";
+        }
+        return filename.substring(0, dot) + "1" + filename.substring(dot);
+    }
+
+    /**
+     * Helper method for client that starts a download on the lowest free stream and sends its request,
+     * waiting first while the server's limit of streams is in use.
+     * @param request the request for the file or files.
+     * @param fileChannel the received file, or null for a batch or a stripe.
+     * @param batch the received batch, or null.
+     * @param stripe the received stripe of a file, or null.
+     * @param checkpoint where to record how much of the file is on disk, or null.
+     * @throws java.io.IOException
+     */
+    private ClientStream openStream(String request, FileChannel fileChannel, RxPBatchWriter batch, RxPStripeWriter stripe,
+                                    RxPCheckpoint checkpoint) throws IOException {
+        synchronized (receiveLock) {
+            while (changingWindow || streams.size() >= connection.getMaxStreams()) {
+                try {
+                    receiveLock.wait();
+                } catch (InterruptedException e) {
+                    //...
+                }
+            }
+            int id = 0;
+            while (streams.containsKey(id)) {
+                id++;
+            }
+            ClientStream stream = new ClientStream(id, request, fileChannel, batch, stripe, checkpoint);
+            streams.put(id, stream);
+            stream.send(false);
+            return stream;
+        }
+    }
+
+    /**
+     * Helper method for client that waits until a download is done, receiving the packets of every
+     * stream whenever no other thread is.
+     * @param stream the download to wait for.
+     * @throws java.io.IOException
+     */
+    private void receiveUntilDone(ClientStream stream) throws IOException {
+        synchronized (receiveLock) {
+            while (!stream.done && receiving) {
+                try {
+                    receiveLock.wait();
+                } catch (InterruptedException e) {
+                    //...
+                }
+            }
+            if (stream.done) {
+                return;
+            }
+            receiving = true;
+        }
+
+        try {
+            //packets are read in place, in a buffer reused for every packet
+            RxPCodec codec = new RxPCodec();
+            codec.setChecksumType(connection.getChecksumType());
+            byte[] recvBuf = new byte[connection.getMss() + RxPCodec.HEADER_SIZE];
+            ByteBuffer recvBuffer = ByteBuffer.wrap(recvBuf);
+            DatagramPacket recvPkt = new DatagramPacket(recvBuf, recvBuf.length);
+            int soTimeout = -1;
+            while (!stream.done) {
+                //wait for a packet until the earliest retransmission timer of any stream
+                long now = System.currentTimeMillis();
+                long nanos = System.nanoTime();
+                long deadline = Long.MAX_VALUE;
+                for (ClientStream other : streams.values()) {
+                    deadline = Math.min(deadline, other.deadline);
+                    //or until an ACK that is held back or a NAK is due, rounded up to the millisecond
+                    long ackDeadline = other.getAckDeadline();
+                    if (ackDeadline != Long.MAX_VALUE) {
+                        deadline = Math.min(deadline, now + Math.max(0, (ackDeadline - nanos + 999999) / 1000000));
+                    }
+                }
+                int timeout = (int) Math.max(1, Math.min(deadline - now, Integer.MAX_VALUE));
+                if (timeout != soTimeout) {
+                    transport.setSoTimeout(timeout);
+                    soTimeout = timeout;
+                }
+                try {
+                    recvPkt.setLength(recvBuf.length);
+                    transport.receive(recvPkt);
+                    codec.wrap(recvBuffer, 0, recvPkt.getLength());
+                    //the server only sends ACKs during the handshake and for window changes
+                    if (codec.isValid() && !codec.isACK()) {
+                        ClientStream target = streams.get(codec.getStream());
+                        if (target != null) {
+                            target.receive(codec);
+                        }
+                    }
+                } catch (InterruptedIOException e) {
+                    //checked below
+                }
+
+                //resend the request or last ACK of every stream the server has not answered in time, and send
+                //the NAKs and ACKs held back that are due
+                now = System.currentTimeMillis();
+                nanos = System.nanoTime();
+                for (ClientStream other : streams.values()) {
+                    if (now >= other.deadline) {
+                        other.timeout(now);
+                    } else {
+                        other.flushAck(nanos);
+                    }
+                }
+            }
+        } finally {
+            transport.setSoTimeout(connection.getRtt().getRtoMillis());
+            synchronized (receiveLock) {
+                receiving = false;
+                receiveLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Helper method for server that returns whether a request asks for files, as get for a file, range
+     * for part of one, stripe for one stripe of one, stat for the version of one and mget for a batch, and
+     * the client agreed to it during the handshake.
+     * @param conn the connection of the client.
+     * @param command the part of the request before the first colon.
+     */
+    private boolean isFileRequest(RxPConnection conn, String command) {
+        return command.equals("get") || (command.equals("mget") && conn.isBatch())
+                || (command.equals("range") && conn.isRange())
+                || (command.equals("stripe") && conn.isStripe())
+                || (command.equals("stat") && conn.isStat())
+                || ((command.equals("sums") || command.equals("blocks")) && conn.isDelta());
+    }
+
+    /**
+     * Helper method for server that returns the name shown for what a request asks for.
+     * @param command the part of the request before the first colon.
+     * @param argument the rest of the request.
+     */
+    private String requestedName(String command, String argument) {
+        if (command.equals("mget")) {
+            return argument.replace('\n', ' ');
+        } else if (command.equals("range")) {
+            String[] range = argument.split(":", 3);
+            return range[range.length - 1];
+        } else if (command.equals("stripe")) {
+            String[] stripe = argument.split(":", 4);
+            return stripe[stripe.length - 1];
+        } else if (command.equals("blocks")) {
+            return argument.split("\n", 2)[0];
+        }
+        return argument;
+    }
+
+    /**
+     * Helper method for server that opens the reader for what a request asks for.
+     * @param command get, range, stripe, stat, mget, sums or blocks.
+     * @param argument the name of the file; the offset, length and name of the file separated by colons
+     * for range; the index of the stripe, the number of stripes, the block size and the name of the file
+     * separated by colons for stripe; what to send in the batch, one per line, for mget; the name of the file followed by
+     * lines of offset and length separated by a colon for blocks.
+     * @param mss the number of file bytes in each packet.
+     * @throws java.io.IOException if the file cannot be opened.
+     */
+    private RxPFileReader openReader(String command, String argument, int mss) throws IOException {
+        if (command.equals("mget")) {
+            return new RxPBatch(argument.split("\n")).openReader(mss);
+        } else if (command.equals("range")) {
+            String[] range = argument.split(":", 3);
+            try {
+                return RxPFileReader.range(new File(range[2]), Long.parseLong(range[0]), Long.parseLong(range[1]), mss);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Invalid range.");
+            }
+        } else if (command.equals("stripe")) {
+            String[] stripe = argument.split(":", 4);
+            try {
+                int index = Integer.parseInt(stripe[0]);
+                int stripes = Integer.parseInt(stripe[1]);
+                long blockSize = Long.parseLong(stripe[2]);
+                if (index < 0 || index >= stripes || blockSize < 1) {
+                    throw new IOException("Invalid stripe.");
+                }
+                return RxPFileReader.stripe(new File(stripe[3]), index, stripes, blockSize, mss);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Invalid stripe.");
+            }
+        } else if (command.equals("stat")) {
+            //what the client compares with the version its checkpoint was saved for
+            Path path = Paths.get(argument);
+            byte[] version = (Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis()).getBytes();
+            return new RxPFileReader(version, new ArrayList<File>(), new long[0], new long[0], mss);
+        } else if (command.equals("sums")) {
+            //the signatures of a file small enough to cache are only worked out once
+            File file = new File(argument);
+            RxPSegmentCache.Entry cached = segmentCache.get(file);
+            if (cached == null) {
+                cached = segmentCache.load(file);
+            }
+            byte[] signatures = cached != null ? cached.getSignatures() : RxPDelta.signatures(file);
+            return new RxPFileReader(signatures, new ArrayList<File>(), new long[0], new long[0], mss);
+        } else if (command.equals("blocks")) {
+            //the parts of the file the client is missing, one after another
+            String[] lines = argument.split("\n");
+            File file = new File(lines[0]);
+            long size = Files.size(file.toPath());
+            List<File> files = new ArrayList<>();
+            long[] offsets = new long[lines.length - 1];
+            long[] lengths = new long[lines.length - 1];
+            try {
+                for (int i = 1; i < lines.length; i++) {
+                    String[] range = lines[i].split(":", 2);
+                    files.add(file);
+                    offsets[i - 1] = Math.max(0, Math.min(Long.parseLong(range[0]), size));
+                    lengths[i - 1] = Math.max(0, Math.min(Long.parseLong(range[1]), size - offsets[i - 1]));
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Invalid range.");
+            }
+            return new RxPFileReader(null, files, offsets, lengths, mss);
+        }
+        //a file sent whole is read from memory if it was sent before and has not changed
+        File file = new File(argument);
+        RxPSegmentCache.Entry cached = segmentCache.get(file);
+        if (cached != null) {
+            return new RxPFileReader(cached, mss);
+        }
+        return new RxPFileReader(file, mss, segmentCache);
+    }
+
+    /**
+     * Helper method for server that returns how many packets a file is sent in.
+     * @param reader the reader for the file being sent.
+     * @throws java.io.IOException if there are more packets than sequence numbers.
+     */
+    private int segmentCount(RxPFileReader reader) throws IOException {
+        long count = reader.getSegmentCount();
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException("File is too large.");
+        }
+        return (int) count;
+    }
+
+    /**
+     * Helper method for server that builds the packet carrying the next segment of a file in place.
+     * When it returns, the buffer's position and limit surround the packet.
+     * @param codec the codec used to fill in the checksum.
+     * @param buffer the buffer to build the packet in.
+     * @param reader the reader for the file being sent.
+     * @param destPort the port of the client.
+     * @param stream the stream the file is sent on.
+     * @param request the number of the client's request, echoed in the ack number so the client can tell
+     * the packet apart from those of an earlier transfer on the same stream.
+     * @param seq the sequence number of the packet.
+     * @param flags FIN for the final segment of the file, and ACK_NOW if no more can be sent until it is acknowledged.
+     * @param stats the metrics of the transfer, which count time spent waiting for the disk.
+     * @param compressor the compressor for the transfer's segments, or null to send them as they are.
+     * @throws java.io.IOException
+     */
+    private void encodeFilePacket(RxPCodec codec, ByteBuffer buffer, RxPFileReader reader, int destPort, int stream, int request,
+                                  int seq, int flags, RxPStats stats, RxPCompressor compressor) throws IOException {
+        if (compressor != null) {
+            //read the segment aside, and write it behind the header compressed or as it is
+            ByteBuffer segment = compressor.segmentBuffer();
+            readSegment(reader, segment, stats);
+            segment.flip();
+            buffer.clear();
+            buffer.position(RxPCodec.HEADER_SIZE);
+            boolean compressed = compressor.encode(segment, buffer, stats);
+            int end = buffer.position();
+            buffer.position(0);
+            RxPCodec.encodeHeader(buffer, srcPort, destPort, seq, request, 0,
+                    flags | (compressed ? RxPCodec.COMPRESSED : 0) | stream, RxPRttEstimator.timestamp());
+            buffer.position(0);
+            buffer.limit(end);
+            codec.wrap(buffer).updateChecksum();
+            return;
+        }
+        buffer.clear();
+        //stamp the packet so the client can echo it back in its ACK
+        RxPCodec.encodeHeader(buffer, srcPort, destPort, seq, request, 0, flags | stream, RxPRttEstimator.timestamp());
+        if (reader.isCached()) {
+            //the checksum of a cached payload is already known, so only the header is gone over
+            reader.nextSegment(buffer);
+            buffer.flip();
+            codec.wrap(buffer);
+            codec.setChecksum(reader.packetChecksum(codec.getChecksumType(), codec.calculateHeaderChecksum()));
+            return;
+        }
+        readSegment(reader, buffer, stats);
+        buffer.flip();
+        codec.wrap(buffer).updateChecksum();
+    }
+
+    /**
+     * Helper method for server that returns the flags of a new data packet of a transfer.
+     * @param conn the connection of the client.
+     * @param seq the sequence number of the packet.
+     * @param totalPkts the number of packets in the transfer.
+     * @param windowEnd the first sequence number the window does not allow to be sent yet.
+     */
+    private static int packetFlags(RxPConnection conn, int seq, int totalPkts, int windowEnd) {
+        if (seq == totalPkts - 1) {
+            return RxPCodec.FIN;
+        }
+        //a client that delays its ACKs is told not to when the window is full, so the sender is not kept waiting
+        return conn.getAckEvery() > 1 && seq + 1 >= windowEnd ? RxPCodec.ACK_NOW : 0;
+    }
+
+    /**
+     * Helper method for server that reads the next segment of a file into a buffer, counting the time spent
+     * waiting if it has not been read ahead yet.
+     */
+    private void readSegment(RxPFileReader reader, ByteBuffer buffer, RxPStats stats) throws IOException {
+        if (reader.isSegmentReady()) {
+            reader.nextSegment(buffer);
+        } else {
+            long diskStart = System.nanoTime();
+            reader.nextSegment(buffer);
+            stats.disk(System.nanoTime() - diskStart);
+        }
+    }
+
+    /**
+     * Helper method for server that returns the metrics to count a client's packets in: those of the
+     * current transfer, or of the connection between transfers.
+     * @param conn the connection of the client.
+     */
+    private RxPStats currentStats(RxPConnection conn) {
+        RxPStats stats = conn.getTransferStats();
+        return stats != null ? stats : conn.getStats();
+    }
+
+    /**
+     * Method for both client and server, called when showing the transfer metrics of each connection.
+     */
+    public void printStats() {
+        if (client) {
+            if (!connected) {
+                System.out.println("No connection established. Try to connect first.");
+                return;
+            }
+            printStats(connection);
+        } else if (connections.isEmpty()) {
+            System.out.println("No clients have connected yet.");
+        } else {
+            for (RxPConnection conn : connections.values()) {
+                printStats(conn);
+            }
+        }
+        if (!client) {
+            System.out.println(segmentCache.describe());
+        }
+    }
+
+    private void printStats(RxPConnection conn) {
+        System.out.println("Connection with " + conn.getAddress() + ":");
+        System.out.println(conn.getStats());
+        if (conn.getTransferStats() != null) {
+            System.out.println("Last transfer (" + conn.getFileName() + "):");
+            System.out.println(conn.getTransferStats());
+        }
+    }
+
+    /**
+     * Method for server, called when changing the congestion control used for sliding window transfers.
+     * @param name the name of the congestion control (reno or cubic).
+     */
+    public void setCongestionControl(String name) {
+        if (RxPCongestionControl.exists(name)) {
+            congestionControl = name;
+            System.out.println("Congestion control changed to " + name + ".");
+        } else {
+            System.out.println("Please enter a valid congestion control (reno, cubic).");
+        }
+    }
+
+    /**
+     * Method for server, called when saving the congestion window of the last transfer over time.
+     * @param filename the name of the file to write.
+     */
+    public void writeCongestionTrace(String filename) {
+        RxPCongestionControl cc = lastCongestionControl;
+        if (cc == null) {
+            System.out.println("No sliding window transfer has been made yet.");
+        } else {
+            try {
+                cc.writeTrace(filename);
+                System.out.println("Congestion window trace written to " + filename + ".");
+            } catch (IOException e) {
+                System.out.println("Error writing file.");
+            }
+        }
+    }
+
+    /**
+     * Method for client, called when trying to disconnect from the server.
+     */
+    public void close() {
+        if (!connected) {
+            System.out.println("You haven't connected yet.");
+        } else {
+            //close connection, and those made for stripes
+            connected = false;
+            synchronized (stripeConnections) {
+                for (RxPAPI stripeConnection : stripeConnections) {
+                    stripeConnection.connected = false;
+                    stripeConnection.transport.close();
+                }
+                stripeConnections.clear();
+            }
+            System.out.println("Disconnected from server.");
+        }
+    }
+
+    /**
+     * Helper method to generate random string for establishing a connection.
+     * @param rng
+     * @param length the length of the string
+     */
+    public String generateString(Random rng, int length) {
+        char[] text = new char[length];
+        String characters = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";//,.-#'?!";
+        for (int i = 0; i < length; i++) {
+            text[i] = characters.charAt(rng.nextInt(characters.length()));
+        }
+        return new String(text);
+    }
+
+    /**
+     * Method for client, called when choosing the checksum to ask for at the next connection.
+     * @param name the name of the checksum (crc32 or crc32c).
+     */
+    public void setChecksum(String name) {
+        int type = RxPChecksum.parse(name);
+        if (type < 0) {
+            System.out.println("Please enter a valid checksum (crc32, crc32c).");
+        } else if (connected) {
+            System.out.println("The checksum can only be changed before connecting.");
+        } else {
+            preferredChecksum = type;
+            System.out.println("Checksum changed to " + name + ".");
+        }
+    }
+
+    /**
+     * Method for client, called when choosing whether to download only the changes to files it has an
+     * older copy of, or always whole files.
+     * @param mode on or off.
+     */
+    public void setDelta(String mode) {
+        if (mode.equals("on") || mode.equals("off")) {
+            deltaEnabled = mode.equals("on");
+            System.out.println("Delta downloads turned " + mode + ".");
+        } else {
+            System.out.println("Please enter on or off.");
+        }
+    }
+
+    /**
+     * Method for client, called when choosing whether to ask for parity packets at the next connection.
+     * @param mode on or off.
+     */
+    public void setFec(String mode) {
+        if (!mode.equals("on") && !mode.equals("off")) {
+            System.out.println("Please enter on or off.");
+        } else if (connected) {
+            System.out.println("Parity packets can only be turned on or off before connecting.");
+        } else {
+            fecEnabled = mode.equals("on");
+            System.out.println("Parity packets turned " + mode + ".");
+        }
+    }
+
+    /**
+     * Method for client, called when choosing how to delay ACKs at the next connection.
+     * @param every how many packets received in order to acknowledge with one ACK, as a String; 1 acknowledges
+     * every packet at once.
+     * @param delay the most microseconds to hold an ACK back for, as a String.
+     */
+    public void setAckDelay(String every, String delay) {
+        try {
+            int newEvery = Integer.parseInt(every);
+            int newDelay = Integer.parseInt(delay);
+            if (newEvery < 1 || newEvery > MAX_ACK_EVERY) {
+                System.out.println("Please enter a number of packets between 1 and " + MAX_ACK_EVERY + ".");
+            } else if (newDelay < 0 || newDelay > MAX_ACK_DELAY) {
+                System.out.println("Please enter a delay between 0 and " + MAX_ACK_DELAY + " microseconds.");
+            } else if (connected) {
+                System.out.println("The ACK delay can only be changed before connecting.");
+            } else {
+                preferredAckEvery = newEvery;
+                preferredAckDelay = newDelay;
+                System.out.println("ACKs sent every " + every + " packets or after " + delay + " microseconds.");
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Please enter integers as the number of packets and the delay.");
+        }
+    }
+
+    /**
+     * Method for client, called when choosing the compressor to ask for at the next connection.
+     * @param name the name of the compressor (deflate), or off to send files as they are.
+     */
+    public void setCompression(String name) {
+        if (!name.equals("off") && !RxPCompressor.exists(name)) {
+            System.out.println("Please enter a valid compressor (" + String.join(", ", RxPCompressor.getNames()) + ") or off.");
+        } else if (connected) {
+            System.out.println("Compression can only be changed before connecting.");
+        } else {
+            preferredCompression = name.equals("off") ? null : name;
+            System.out.println("Compression changed to " + name + ".");
+        }
+    }
+
+    /**
+     * Method for client and server, called when changing the largest segment size this side agrees to.
+     * The client asks for it at the next connection; the server limits what clients ask for to it.
+     * @param size the largest number of file bytes in a packet, as a String.
+     */
+    public void setMaxSegmentSize(String size) {
+        try {
+            int newMss = Integer.parseInt(size);
+            if (newMss < 1 || newMss > MAX_MSS) {
+                System.out.println("Please enter a segment size between 1 and " + MAX_MSS + ".");
+            } else if (client && connected) {
+                System.out.println("The segment size can only be changed before connecting.");
+            } else {
+                maxMss = newMss;
+                System.out.println("Maximum segment size changed to " + size + ".");
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Please enter an integer as the segment size.");
+        }
+    }
+
+    /**
+     * Method for server, called when changing how much of the files it sends it keeps in memory.
+     * @param size the number of megabytes to keep, as a String; 0 keeps none.
+     */
+    public void setCacheSize(String size) {
+        try {
+            long megabytes = Long.parseLong(size);
+            if (megabytes < 0) {
+                System.out.println("Please enter a cache size of 0 or more.");
+            } else if (megabytes > Long.MAX_VALUE / (1024L * 1024L)) {
+                //the size in bytes would not fit in a long
+                System.out.println("Please enter a cache size of at most " + Long.MAX_VALUE / (1024L * 1024L) + " MB.");
+            } else {
+                segmentCache.setCapacity(megabytes * 1024L * 1024L);
+                System.out.println("Cache size changed to " + size + " MB.");
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Please enter an integer as the cache size.");
+        }
+    }
+
+    /**
+     * Helper method to write handshake options as key=value pairs separated by semicolons.
+     * @param options the options to write.
+     */
+    public byte[] encodeOptions(Map<String, String> options) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(option.getKey()).append('=').append(option.getValue());
+        }
+        return sb.toString().getBytes();
+    }
+
+    /**
+     * Helper method to read handshake options written by encodeOptions.
+     * @param data the packet data holding the options, may be null.
+     * @param offset where the options start in the data.
+     */
+    public Map<String, String> parseOptions(byte[] data, int offset) {
+        Map<String, String> options = new HashMap<>();
+        if (data != null && data.length > offset) {
+            for (String option : new String(data, offset, data.length - offset).split(";")) {
+                String[] keyValue = option.split("=", 2);
+                if (keyValue.length == 2) {
+                    options.put(keyValue[0], keyValue[1]);
+                }
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Helper method that reads a whole number from the handshake options, or returns null if the option
+     * is missing or is not a number, so a peer cannot stop the handshake with a badly written option.
+     * @param options the options received.
+     * @param key the name of the option.
+     */
+    static Integer intOption(Map<String, String> options, String key) {
+        String value = options.get(key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Helper method to generate an MD5 hash for establishing a connection.
+     * @param bytesToDigest bytes that need to be hashed.
+     */
+    public byte[] md5(byte[] bytesToDigest) {
+        try {
             MessageDigest md = MessageDigest.getInstance("MD5");
             md.update(bytesToDigest);
             return md.digest();
@@ -549,119 +1930,831 @@ public class RxPAPI {
 
     /**
      * Inner class to run a separate thread for sliding window protocol.
+     * The window slides forward as soon as the lowest outstanding packet is acknowledged, so new packets
+     * keep flowing while older ones are still in flight. The number of packets in flight is bounded by
+     * both the client's window size and the congestion window. Each transfer has its own window and
+     * congestion control, even next to other transfers on the same connection; a window size of 1 is
+     * stop-and-wait. The window itself, with what ACKs, NAKs and timeouts do to it, is an RxPSendWindow,
+     * shared with EventLoopSend; this class waits on a lock and sends from its own thread.
      */
-    private class ServerSend implements Runnable {
+    class ServerSend implements Runnable {
+
+        private final RxPConnection conn;
+        private final int stream;
+        private final int request;
+        //what the client asked for, as get, range, stripe, stat, mget, sums or blocks, and the rest of its request
+        private final String command;
+        private final String fileName;
+        private final int windowSize;
+        private final int mss;
+        //file bytes in each packet, and the compressor for them, or null
+        private final int segmentSize;
+        private final RxPCompressor compressor;
+        //builds the parity packets, or null if none are sent
+        private final RxPFecEncoder fec;
+
+        //packets that are sent but not yet acknowledged, indexed by sequence number modulo window size;
+        //the buffers are reused as the window moves
+        private ByteBuffer[] storedPkts;
+        private DatagramPacket[] storedDatagrams;
+        //the parity packet of the last group, sent once and never again
+        private ByteBuffer parityPkt;
+        private DatagramPacket parityDatagram;
+        private RxPCodec codec = new RxPCodec();
+        //what is outstanding and what to send next, only used while holding the lock
+        private final RxPSendWindow window;
+        //set when the client makes a new request or connects again
+        private boolean cancelled = false;
+        private final Object lock = new Object();
+
+        private RxPCongestionControl cc = RxPCongestionControl.create(congestionControl);
+        private final RxPStats stats;
+
+        /**
+         * @param conn the connection of the client.
+         * @param stream the stream the file is sent on.
+         * @param request the number of the client's request.
+         * @param command get, range, stripe, stat, mget, sums or blocks.
+         * @param fileName the name of the file to send, or the rest of the request.
+         */
+        public ServerSend(RxPConnection conn, int stream, int request, String command, String fileName) {
+            this.conn = conn;
+            this.stream = stream;
+            this.request = request;
+            this.command = command;
+            this.fileName = fileName;
+            stats = conn.startTransfer();
+            //the window size and segment size are fixed for the whole transfer
+            windowSize = conn.getWindowSize();
+            mss = conn.getMss();
+            //parity packets hold a few bytes more than the payloads they cover, and compressed segments are
+            //a little smaller, so they still fit when they do not shrink
+            int payloadSize = conn.isFec() ? mss - RxPFecEncoder.OVERHEAD : mss;
+            compressor = conn.getCompression() != null ? RxPCompressor.create(conn.getCompression(), payloadSize) : null;
+            segmentSize = compressor != null ? RxPCompressor.segmentSize(payloadSize) : payloadSize;
+            fec = conn.isFec() ? new RxPFecEncoder(payloadSize) : null;
+            window = new RxPSendWindow(conn, cc, fec, stats, segmentSize, MAXTRIES);
+
+            storedPkts = new ByteBuffer[windowSize];
+            storedDatagrams = new DatagramPacket[windowSize];
+            codec.setChecksumType(conn.getChecksumType());
+            for (int i = 0; i < windowSize; i++) {
+                byte[] pktBuf = new byte[mss + RxPCodec.HEADER_SIZE];
+                storedPkts[i] = ByteBuffer.wrap(pktBuf);
+                storedDatagrams[i] = new DatagramPacket(pktBuf, pktBuf.length, conn.getAddress());
+            }
+            if (fec != null) {
+                byte[] parityBuf = new byte[mss + RxPCodec.HEADER_SIZE];
+                parityPkt = ByteBuffer.wrap(parityBuf);
+                parityDatagram = new DatagramPacket(parityBuf, parityBuf.length, conn.getAddress());
+            }
+        }
 
         @Override
         public void run() {
-            File file = new File(fileName);
-            byte[] fileArray = new byte[(int)file.length()];
+            lastCongestionControl = cc;
+            stats.start();
+            RxPFileReader reader = null;
 
             try {
-                FileInputStream fileInputStream = new FileInputStream(file);
-                fileInputStream.read(fileArray);
+                //segments are read from disk as they are needed
+                reader = openReader(command, fileName, segmentSize);
+                int totalPkts = segmentCount(reader);
 
-                byte[] filePacket;
-                if (fileArray.length < ECHOMAX) {
-                    filePacket = new byte[fileArray.length];
-                } else {
-                    filePacket = new byte[ECHOMAX];
-                }
-                int count = fileArray.length;
-                int pos = 0;
-                int pktsSent = 0;
-                List<RxPPacket> storedPkts = new ArrayList<>();
                 synchronized (lock) {
-                    currentWindowSize = Math.min(fileArray.length / 255 + 1, windowSize);
-                    recvdPktArr = new boolean[currentWindowSize];
-                }
-                //send until entire file is sent
-                while (count > 0) {
-                    //send packets in current window
-                    while (pktsSent < currentWindowSize) {
-                        //check if there are at least 255 bytes left
-                        if (count / 255 >= 1) {
-                            for (int i = 0; i < 255; i++) {
-                                filePacket[i] = fileArray[pos];
-                                pos++;
-                            }
+                    window.start(totalPkts, reader.getSize(), System.currentTimeMillis());
+                }
+                //send until every packet has been acknowledged; the lock is only held to decide what to send
+                //next, so reading the file and sending do not hold up the ACKs of this or any other transfer
+                while (true) {
+                    int seq;
+                    boolean fresh = false;
+                    int flags = 0;
+                    synchronized (lock) {
+                        if (window.isDone() || cancelled) {
+                            break;
+                        }
+                        if (!window.checkTimer(System.currentTimeMillis())) {
+                            throw new IOException("Client stopped responding.");
+                        }
 
-                            RxPHeader header = new RxPHeader(srcPort, destPort, sequenceNum);
-                            //last packet
-                            if (count == 255) {
-                                header.setFIN(true);
+                        //the file is read on this thread, so a new packet can always be sent
+                        seq = window.next(true);
+                        if (seq >= 0) {
+                            fresh = seq == window.getHighestSent();
+                            if (fresh) {
+                                flags = packetFlags(conn, seq, totalPkts, window.getWindowEnd());
                             }
-                            RxPPacket filePkt = new RxPPacket(header, filePacket);
-                            filePkt.updateChecksum();
-                            storedPkts.add(filePkt);
-                            byte[] ackPktBytes = filePkt.getPacketByteArray();
-                            sendPkt = new DatagramPacket(ackPktBytes, ackPktBytes.length, destAddress, destPort);
-                            socket.send(sendPkt);
-
-                            sequenceNum++;
-                            count = count - 255;
-
-                        //otherwise it is the last packet with less than 255 bytes
+                            window.sent(seq);
                         } else {
-                            int src = (fileArray.length / 255) * 255;
-                            int dest = fileArray.length - src;
-                            filePacket = new byte[dest];
-                            System.arraycopy(fileArray, src, filePacket, 0, dest);
-                            RxPHeader header = new RxPHeader(srcPort, destPort, sequenceNum);
-                            //last packet
-                            header.setFIN(true);
-                            RxPPacket filePkt = new RxPPacket(header, filePacket);
-                            filePkt.updateChecksum();
-                            storedPkts.add(filePkt);
-                            byte[] ackPktBytes = filePkt.getPacketByteArray();
-                            sendPkt = new DatagramPacket(ackPktBytes, ackPktBytes.length, destAddress, destPort);
-                            socket.send(sendPkt);
-
-                            count = 0;
-                            sequenceNum++;
+                            //nothing to send, so wait for an ACK to move the window, or for the timer to run out
+                            long wait = window.getDeadline() - System.currentTimeMillis();
+                            if (wait > 0) {
+                                try {
+                                    lock.wait(wait);
+                                } catch (InterruptedException e) {
+                                    //...
+                                }
+                            }
+                            continue;
                         }
-                        pktsSent++;
                     }
 
-                    boolean allRecvd = false;
-                    //check if all packets in current window have been received
-                    while (!allRecvd) {
-                        //wait for client to receive
-                        try {
-                            Thread.sleep(400);
-                        } catch (InterruptedException e) {
-                            //...
-                        }
-
+                    //only this thread writes the stored packets, so they are built and sent outside the lock
+                    int index = seq % windowSize;
+                    if (fresh) {
+                        encodeFilePacket(codec, storedPkts[index], reader, conn.getDestPort(), stream, request, seq,
+                                flags, stats, compressor);
+                        storedDatagrams[index].setLength(storedPkts[index].limit());
+                    }
+                    transport.send(storedDatagrams[index]);
+                    stats.sent(storedDatagrams[index].getLength(), !fresh);
+                    //follow a complete group with its parity packet; the encoder also counts the losses ACKs report
+                    if (fresh && fec != null) {
+                        boolean groupComplete;
                         synchronized (lock) {
-                            allRecvd = true;
-                            //check if all packets are received
-                            for (int i = 0; i < recvdPktArr.length; i++) {
-                                if (!recvdPktArr[i]) {
-                                    allRecvd = false;
-                                    RxPPacket pkt = storedPkts.get(i);
-                                    byte[] ackPktBytes = pkt.getPacketByteArray();
-                                    sendPkt = new DatagramPacket(ackPktBytes, ackPktBytes.length, destAddress, destPort);
-                                    socket.send(sendPkt);
-                                }
+                            groupComplete = fec.add(codec, seq == totalPkts - 1);
+                            if (groupComplete) {
+                                fec.encodeParity(parityPkt, srcPort, conn.getDestPort(), request, stream);
                             }
                         }
-                    }
-                    pktsSent = 0;
-                    synchronized (lock) {
-                        //update all variables
-                        currentSeqNumStart += currentWindowSize;
-                        currentWindowSize = Math.min(count / 255 + 1, windowSize);
-                        storedPkts.clear();
-                        recvdPktArr = new boolean[currentWindowSize];
+                        if (groupComplete) {
+                            codec.wrap(parityPkt).updateChecksum();
+                            parityDatagram.setLength(parityPkt.limit());
+                            transport.send(parityDatagram);
+                            stats.sent(parityPkt.limit(), false);
+                            stats.parity();
+                        }
                     }
                 }
-                fileInputStream.close();
-            } catch (FileNotFoundException e) {
+            } catch (NoSuchFileException e) {
                 System.out.println("File Not Found");
             } catch (IOException e) {
                 System.out.println("File error.");
+            } finally {
+                stats.end();
+                if (compressor != null) {
+                    compressor.end();
+                }
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        //...
+                    }
+                }
+            }
+        }
+
+        /**
+         * Called by the server's listening loop for every ACK received from the client.
+         * @param codec the codec pointing at the ACK.
+         */
+        public void ack(RxPCodec codec) {
+            synchronized (lock) {
+                if (window.ack(codec)) {
+                    //wake up the sending thread so it can send what the ACK allows
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Stops the transfer, for when the client has moved on to something else.
+         */
+        public void cancel() {
+            synchronized (lock) {
+                cancelled = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Inner class holding the state of one transfer driven by eventLoop().
+     * It keeps its sliding window in an RxPSendWindow as ServerSend does, but instead of waiting on a lock
+     * it is called by the event loop whenever something may have changed, sends what it can without
+     * blocking and reports when its timer runs out next.
+     */
+    private class EventLoopSend {
+
+        private final RxPConnection conn;
+        private final int stream;
+        private final int request;
+        private final int windowSize;
+        private final RxPFileReader reader;
+        private final int totalPkts;
+        private final int mss;
+        //file bytes in each packet, and the compressor for them, or null
+        private final int segmentSize;
+        private final RxPCompressor compressor;
+        //builds the parity packets, or null if none are sent
+        private final RxPFecEncoder fec;
+        private final RxPStats stats;
+
+        //packets that are sent but not yet acknowledged, indexed by sequence number modulo window size
+        private ByteBuffer[] storedPkts;
+        private RxPCodec codec = new RxPCodec();
+        //what is outstanding and what to send next
+        private final RxPSendWindow window;
+        //whether the last send found no room in the socket buffer
+        private boolean blocked = false;
+        //whether the packet at the window's highestSent is built but found no room in the socket, so is sent as
+        //it is next
+        private boolean unsent = false;
+        //the parity packet of the last group, and whether it still has to be sent
+        private ByteBuffer parityPkt;
+        private boolean parityPending = false;
+
+        private RxPCongestionControl cc = RxPCongestionControl.create(congestionControl);
+
+        /**
+         * @param conn the connection of the client.
+         * @param stream the stream the file is sent on.
+         * @param request the number of the client's request.
+         * @param command get, range, stripe, stat, mget, sums or blocks.
+         * @param fileName the name of the file to send, or the rest of the request.
+         * @param selector the event loop's selector, woken up when more of the file has been read.
+         * @throws java.io.IOException if the file cannot be opened.
+         */
+        public EventLoopSend(RxPConnection conn, int stream, int request, String command, String fileName,
+                             final Selector selector) throws IOException {
+            this.conn = conn;
+            this.stream = stream;
+            this.request = request;
+            windowSize = conn.getWindowSize();
+
+            mss = conn.getMss();
+            //parity packets hold a few bytes more than the payloads they cover, and compressed segments are
+            //a little smaller, so they still fit when they do not shrink
+            int payloadSize = conn.isFec() ? mss - RxPFecEncoder.OVERHEAD : mss;
+            compressor = conn.getCompression() != null ? RxPCompressor.create(conn.getCompression(), payloadSize) : null;
+            segmentSize = compressor != null ? RxPCompressor.segmentSize(payloadSize) : payloadSize;
+            fec = conn.isFec() ? new RxPFecEncoder(payloadSize) : null;
+            reader = openReader(command, fileName, segmentSize);
+            totalPkts = segmentCount(reader);
+            reader.setReadListener(new Runnable() {
+                @Override
+                public void run() {
+                    selector.wakeup();
+                }
+            });
+
+            storedPkts = new ByteBuffer[windowSize];
+            codec.setChecksumType(conn.getChecksumType());
+            for (int i = 0; i < windowSize; i++) {
+                storedPkts[i] = ByteBuffer.allocateDirect(mss + RxPCodec.HEADER_SIZE);
+            }
+            if (fec != null) {
+                parityPkt = ByteBuffer.allocateDirect(mss + RxPCodec.HEADER_SIZE);
+            }
+
+            lastCongestionControl = cc;
+            stats = conn.startTransfer();
+            stats.start();
+            window = new RxPSendWindow(conn, cc, fec, stats, segmentSize, MAXTRIES);
+            window.start(totalPkts, reader.getSize(), System.currentTimeMillis());
+        }
+
+        /**
+         * Sends what the window allows and handles the timer.
+         * @param now the current time in milliseconds.
+         * @return whether the transfer is still running.
+         * @throws java.io.IOException
+         */
+        public boolean service(long now) throws IOException {
+            //stop when every packet has been acknowledged
+            if (window.isDone()) {
+                return false;
+            }
+            if (!window.checkTimer(now)) {
+                System.out.println("File error.");
+                return false;
+            }
+
+            //fill the window, as long as the file has been read and the socket has room; the reader wakes the
+            //event loop up when the next segment is ready
+            blocked = false;
+            if (!sendParity()) {
+                return true;
+            }
+            int seq;
+            while ((seq = window.next(unsent || reader.isSegmentReady())) >= 0) {
+                ByteBuffer pkt = storedPkts[seq % windowSize];
+                boolean fresh = seq == window.getHighestSent();
+                if (!fresh) {
+                    pkt.position(0);
+                } else if (!unsent) {
+                    encodeFilePacket(codec, pkt, reader, conn.getDestPort(), stream, request, seq,
+                            packetFlags(conn, seq, totalPkts, window.getWindowEnd()), stats, compressor);
+                    unsent = true;
+                }
+                if (channel.send(pkt, conn.getAddress()) == 0) {
+                    //no room, so try again when the event loop sees the channel is writable; a new packet is
+                    //kept as it is and only counted as sent once it has gone out
+                    blocked = true;
+                    break;
+                }
+                stats.sent(pkt.limit(), !fresh);
+                window.sent(seq);
+                if (fresh) {
+                    unsent = false;
+                    //a complete group is followed by its parity packet
+                    if (fec != null && fec.add(codec.wrap(pkt, 0, pkt.limit()), seq == totalPkts - 1)) {
+                        fec.encodeParity(parityPkt, srcPort, conn.getDestPort(), request, stream);
+                        codec.wrap(parityPkt).updateChecksum();
+                        parityPending = true;
+                    }
+                }
+                if (!sendParity()) {
+                    break;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Sends the parity packet of the last group if it has not been sent yet.
+         * @return false if there was no room in the socket for it.
+         * @throws java.io.IOException
+         */
+        private boolean sendParity() throws IOException {
+            if (parityPending) {
+                if (channel.send(parityPkt, conn.getAddress()) == 0) {
+                    blocked = true;
+                    return false;
+                }
+                stats.sent(parityPkt.limit(), false);
+                stats.parity();
+                parityPending = false;
+            }
+            return true;
+        }
+
+        /**
+         * Called by the event loop for every ACK received from the client.
+         * @param codec the codec pointing at the ACK.
+         */
+        public void ack(RxPCodec codec) {
+            window.ack(codec);
+        }
+
+        public long getDeadline() {
+            return window.getDeadline();
+        }
+
+        public boolean isBlocked() {
+            return blocked;
+        }
+
+        public RxPConnection getConnection() {
+            return conn;
+        }
+
+        public int getStream() {
+            return stream;
+        }
+
+        public int getRequest() {
+            return request;
+        }
+
+        /**
+         * Stops reading the file.
+         */
+        public void close() {
+            stats.end();
+            if (compressor != null) {
+                compressor.end();
+            }
+            try {
+                reader.close();
+            } catch (IOException e) {
+                //...
+            }
+        }
+    }
+
+    /**
+     * Inner class holding the state of one of the client's downloads.
+     * Packets are written in order, those that arrive after a gap being held until it is filled, and every
+     * packet that arrives on the stream is answered with the ACK of the last packet written, so the server
+     * can tell when one was lost; when delayed ACKs are
+     * agreed on, packets received in order share an ACK. Its methods are called by whichever thread is
+     * receiving for the connection at the time.
+     */
+    private class ClientStream {
+
+        private final int id;
+        //where the data goes: one received file, a batch that splits it into files, or one stripe of a file
+        private final FileChannel fileChannel;
+        private final RxPBatchWriter batch;
+        private final RxPStripeWriter stripe;
+        //how much of the received file is on disk, for resuming the download
+        private final RxPCheckpoint checkpoint;
+        private final RxPStats stats;
+        //number of the request, which the server echoes in the ack number of its data packets
+        private final int requestNumber;
+
+        //the request, and then the ACK of the last packet received in order, sent again until more data arrives;
+        //ACKs are built in place in a buffer reused for every packet
+        private DatagramPacket sendPkt;
+        private final ByteBuffer ackBuffer;
+        private final DatagramPacket ackDatagram;
+        //next sequence number expected
+        private int sequenceNum = 0;
+        private long unforcedBytes = 0;
+        //decompresses the file data, or null if it is sent as it is
+        private final RxPCompressor decompressor;
+        //repairs lost packets from parity packets, or null if the server sends none
+        private final RxPFecDecoder fec;
+        //holds packets that arrive after a gap, or null if the window only has room for one packet
+        private final RxPReassemblyBuffer reassembly;
+        //packets from sequenceNum on there is room for, advertised in every ACK
+        private final int receiveWindow;
+        //packets received in order that one ACK may acknowledge, and how long it may be held back in nanoseconds
+        private final int ackEvery;
+        private final long ackDelay;
+        //packets received in order since the last ACK was sent, and when it must be sent by, in System.nanoTime()
+        //terms, or Long.MAX_VALUE if none is held back
+        private int unacknowledged = 0;
+        private long ackDeadline = Long.MAX_VALUE;
+        //packets received in order still acknowledged at once since the last sign of a loss
+        private int quickAcks = 0;
+        //the missing packet being waited for before it is reported lost, or the last one reported, and when to
+        //report it, in System.nanoTime() terms, or Long.MAX_VALUE if it is not waited for
+        private int nakSeq = -1;
+        private long nakDeadline = Long.MAX_VALUE;
+        //how long a missing packet is waited for, in nanoseconds, in case it was only overtaken by later ones
+        private final long reorderDelay;
+        private final RxPCodec ackCodec = new RxPCodec();
+
+        //when to resend if nothing arrives on the stream, and how long to wait, doubled each time it runs out
+        private long deadline;
+        private int timeout;
+
+        //set once the file is complete or could not be written
+        private volatile boolean done = false;
+        private volatile boolean failed = false;
+
+        /**
+         * @param id the stream the file is downloaded on.
+         * @param request the request for the file or files.
+         * @param fileChannel the received file, or null for a batch or a stripe.
+         * @param batch the received batch, or null.
+         * @param stripe the received stripe of a file, or null.
+         * @param checkpoint where to record how much of the file is on disk, or null.
+         */
+        public ClientStream(int id, String request, FileChannel fileChannel, RxPBatchWriter batch, RxPStripeWriter stripe,
+                            RxPCheckpoint checkpoint) {
+            this.id = id;
+            this.fileChannel = fileChannel;
+            this.batch = batch;
+            this.stripe = stripe;
+            this.checkpoint = checkpoint;
+
+            //the request carries its number in the sequence number, which tells a new request on the stream from
+            //a repeat of an earlier one however long apart they are made
+            requestNumber = connection.nextRequest();
+            RxPHeader getHeader = new RxPHeader(srcPort, connection.getDestPort(), requestNumber);
+            getHeader.setStream(id);
+            getHeader.setTimestamp(RxPRttEstimator.timestamp());
+
+            RxPPacket getPkt = new RxPPacket(getHeader, request.getBytes());
+            getPkt.updateChecksum(connection.getChecksumType());
+
+            byte[] getPktBytes = getPkt.getPacketByteArray();
+            sendPkt = new DatagramPacket(getPktBytes, getPktBytes.length, connection.getAddress());
+
+            //room for the header and the ranges of packets held
+            byte[] ackBuf = new byte[RxPCodec.HEADER_SIZE + 8 * MAX_SACK_RANGES];
+            ackBuffer = ByteBuffer.wrap(ackBuf);
+            ackDatagram = new DatagramPacket(ackBuf, ackBuf.length, connection.getAddress());
+
+            decompressor = connection.getCompression() != null
+                    ? RxPCompressor.create(connection.getCompression(), connection.getMss()) : null;
+            fec = connection.isFec() ? new RxPFecDecoder(connection.getMss()) : null;
+            //as many packets as the window holds, as long as they fit in the memory allowed
+            receiveWindow = Math.max(1, Math.min(connection.getWindowSize(), MAX_HELD_BYTES / (RxPCodec.HEADER_SIZE + connection.getMss())));
+            reassembly = receiveWindow > 1 ? new RxPReassemblyBuffer(receiveWindow, connection.getMss()) : null;
+            ackEvery = connection.getAckEvery();
+            ackDelay = connection.getAckDelay() * 1000L;
+            reorderDelay = Math.max(MIN_REORDER_DELAY, connection.getRtt().getSrtt() / 4) * 1000L;
+            ackCodec.setChecksumType(connection.getChecksumType());
+
+            timeout = connection.getRtt().getRtoMillis();
+            deadline = System.currentTimeMillis() + timeout;
+            stats = connection.startTransfer();
+            stats.start();
+        }
+
+        /**
+         * Sends the request or the last ACK.
+         * @param resend whether it is sent again because nothing arrived in time.
+         */
+        public void send(boolean resend) throws IOException {
+            transport.send(sendPkt);
+            stats.sent(sendPkt.getLength(), resend);
+            unacknowledged = 0;
+            ackDeadline = Long.MAX_VALUE;
+        }
+
+        /**
+         * Returns when an ACK that is held back or a NAK is due, in System.nanoTime() terms, or Long.MAX_VALUE.
+         */
+        public long getAckDeadline() {
+            return Math.min(ackDeadline, nakDeadline);
+        }
+
+        /**
+         * Sends the NAK or the ACK held back for packets received in order, if it is due.
+         * @param now the current time, from System.nanoTime().
+         * @throws java.io.IOException
+         */
+        public void flushAck(long now) throws IOException {
+            if (now >= nakDeadline) {
+                sendNak();
+            } else if (now >= ackDeadline) {
+                send(false);
+            }
+        }
+
+        /**
+         * Sends the last ACK flagged as a NAK, reporting the packet after it lost.
+         * @throws java.io.IOException
+         */
+        private void sendNak() throws IOException {
+            nakDeadline = Long.MAX_VALUE;
+            if (sendPkt != ackDatagram) {
+                return;
+            }
+            ackCodec.wrap(ackBuffer, 0, ackDatagram.getLength());
+            ackCodec.setFlags(ackCodec.getFlags() | RxPCodec.NAK);
+            ackCodec.updateChecksum();
+            send(false);
+            stats.nak();
+            //later copies of the ACK are plain duplicates
+            ackCodec.setFlags(ackCodec.getFlags() & ~RxPCodec.NAK);
+            ackCodec.updateChecksum();
+        }
+
+        /**
+         * Called for every packet that arrives on the stream.
+         * @param codec the codec pointing at the packet.
+         * @throws java.io.IOException
+         */
+        public void receive(RxPCodec codec) throws IOException {
+            //a server that runs several streams tags its data with the request, so packets still on their way
+            //from an earlier transfer on this stream are not taken for part of this one
+            if (connection.getMaxStreams() > 1 && codec.getAckNumber() != requestNumber) {
+                stats.duplicate();
+                return;
+            }
+            stats.received(codec.getLength());
+            //the server is responding again
+            timeout = connection.getRtt().getRtoMillis();
+            deadline = System.currentTimeMillis() + timeout;
+
+            //check message for corruption
+            boolean endOfFile = false;
+            boolean answer = true;
+            //whether the ACK may be held back, which it only is for a packet received in order
+            boolean delay = false;
+            if (codec.verifyChecksum()) {
+                int echo = codec.getTimestamp();
+                int accepted = sequenceNum;
+                boolean held = false;
+                if (codec.isParity()) {
+                    //a parity packet is only answered when it repairs a lost packet, so it is not taken for a
+                    //duplicate ACK
+                    answer = fec != null && codec.getAckNumber() == requestNumber && fec.repair(codec, sequenceNum);
+                    if (answer) {
+                        stats.repaired();
+                        quickAcks = QUICK_ACKS;
+                    }
+                } else if (codec.getSequenceNumber() == sequenceNum) {
+                    //kept for repairing a later packet of its group
+                    if (fec != null) {
+                        fec.store(codec, sequenceNum);
+                    }
+                    //check if final packet
+                    endOfFile = codec.isFIN();
+                    delay = ackEvery > 1 && !codec.isAckNow() && quickAcks == 0;
+                    if (quickAcks > 0) {
+                        quickAcks--;
+                    }
+                    if (!write(codec)) {
+                        return;
+                    }
+                } else if (codec.getSequenceNumber() < sequenceNum) {
+                    stats.duplicate();
+                    quickAcks = QUICK_ACKS;
+                } else {
+                    stats.outOfOrder();
+                    quickAcks = QUICK_ACKS;
+                    //kept until the packets before it arrive or are repaired
+                    if (reassembly != null) {
+                        held = reassembly.store(codec, sequenceNum);
+                    }
+                    if (fec != null && fec.store(codec, sequenceNum) && fec.repair(null, sequenceNum)) {
+                        stats.repaired();
+                    }
+                }
+                //packets kept ahead of a gap that has now been filled follow on
+                ByteBuffer kept;
+                while (!endOfFile && (kept = kept(sequenceNum)) != null) {
+                    //a gap has been filled, which the server is told about at once
+                    delay = false;
+                    codec.wrap(kept);
+                    endOfFile = codec.isFIN();
+                    if (!write(codec)) {
+                        return;
+                    }
+                }
+
+                //a packet held after a gap changes the ranges the ACK lists
+                if (sequenceNum != accepted || held) {
+                    //echo the server's timestamp so it can measure the round trip time
+                    ackBuffer.clear();
+                    RxPCodec.encodeHeader(ackBuffer, srcPort, connection.getDestPort(), sequenceNum - 1, receiveWindow, 0,
+                            RxPCodec.ACK | id, echo);
+                    if (reassembly != null && connection.isSack()) {
+                        reassembly.writeRanges(ackBuffer, sequenceNum, MAX_SACK_RANGES);
+                    }
+                    ackBuffer.flip();
+                    codec.wrap(ackBuffer).updateChecksum();
+                    ackDatagram.setLength(ackBuffer.limit());
+                    sendPkt = ackDatagram;
+                }
+
+                //a missing packet is reported lost once, when packets after it have waited long enough for it
+                if (connection.isNak() && reassembly != null) {
+                    if (!reassembly.hasGap(sequenceNum)) {
+                        nakDeadline = Long.MAX_VALUE;
+                    } else if (nakSeq != sequenceNum) {
+                        nakSeq = sequenceNum;
+                        nakDeadline = System.nanoTime() + reorderDelay;
+                    }
+                }
+            } else {
+                stats.checksumFailure();
+                quickAcks = QUICK_ACKS;
+            }
+
+            //several packets received in order share an ACK, sent once enough of them arrived or the first has
+            //waited long enough
+            if (delay && !endOfFile && ++unacknowledged < ackEvery) {
+                if (ackDeadline == Long.MAX_VALUE) {
+                    ackDeadline = System.nanoTime() + ackDelay;
+                }
+                answer = false;
+            }
+            //answer every other packet with the last ACK at once, which after the final packet is sent once more
+            if (answer) {
+                send(false);
+            }
+            if (endOfFile) {
+                finish(false);
+            }
+        }
+
+        /**
+         * Returns a packet that was kept after arriving ahead of a gap or was repaired, or null.
+         * @param seq its sequence number.
+         */
+        private ByteBuffer kept(int seq) {
+            ByteBuffer packet = fec != null ? fec.get(seq) : null;
+            if (packet == null && reassembly != null) {
+                packet = reassembly.get(seq);
+            }
+            return packet;
+        }
+
+        /**
+         * Writes the data of the next packet in order to the file, forcing it to disk every so often.
+         * @param codec the codec pointing at the packet.
+         * @return false if the data could not be written, which ends the download.
+         * @throws java.io.IOException
+         */
+        private boolean write(RxPCodec codec) throws IOException {
+            //a compressed segment is decompressed first, in the order it was sent
+            ByteBuffer segment = null;
+            if (codec.isCompressed()) {
+                try {
+                    if (decompressor == null) {
+                        throw new IOException("Compression was not agreed on.");
+                    }
+                    segment = decompressor.decode(codec, stats);
+                } catch (IOException e) {
+                    System.out.println("Could not decompress file.");
+                    finish(true);
+                    return false;
+                }
+            }
+            int length = segment != null ? segment.remaining() : codec.getDataLength();
+            //write the data straight to the file
+            if (length > 0) {
+                long diskStart = System.nanoTime();
+                try {
+                    WritableByteChannel target = batch != null ? batch : stripe != null ? stripe : fileChannel;
+                    if (segment != null) {
+                        while (segment.hasRemaining()) {
+                            target.write(segment);
+                        }
+                    } else {
+                        codec.writeData(target);
+                    }
+                    unforcedBytes += length;
+                    if (unforcedBytes >= FORCE_INTERVAL) {
+                        force();
+                    }
+                } catch (IOException e) {
+                    System.out.println("Error writing file.");
+                    finish(true);
+                    return false;
+                }
+                stats.disk(System.nanoTime() - diskStart);
+            }
+            stats.delivered(length);
+
+            //increment sequence number for receiving next packet
+            sequenceNum++;
+            return true;
+        }
+
+        /**
+         * Called when nothing has arrived on the stream in time.
+         * @param now the current time in milliseconds.
+         * @throws java.io.IOException
+         */
+        public void timeout(long now) throws IOException {
+            //wait longer before trying again
+            stats.timeout();
+            timeout = Math.min(2 * timeout, 60000);
+            deadline = now + timeout;
+            send(true);
+        }
+
+        /**
+         * Forces what has been received to disk, and then records it in the checkpoint.
+         * @throws java.io.IOException
+         */
+        private void force() throws IOException {
+            if (batch != null) {
+                batch.force();
+            } else if (stripe != null) {
+                stripe.force();
+            } else {
+                fileChannel.force(false);
+            }
+            if (checkpoint != null) {
+                checkpoint.setReceived(checkpoint.getReceived() + unforcedBytes);
+                checkpoint.save();
+            }
+            unforcedBytes = 0;
+        }
+
+        /**
+         * Finishes the received file and frees the stream for another download.
+         * @param failed whether the file could not be written.
+         */
+        private void finish(boolean failed) {
+            long diskStart = System.nanoTime();
+            try {
+                if (!failed) {
+                    force();
+                }
+                if (batch != null) {
+                    batch.close();
+                    if (!failed && !batch.isComplete()) {
+                        System.out.println("The batch ended before every file was received.");
+                        failed = true;
+                    }
+                } else if (stripe != null) {
+                    stripe.close();
+                } else {
+                    fileChannel.close();
+                }
+            } catch (IOException e) {
+                System.out.println("Error writing file.");
+                failed = true;
+            }
+            //a download that did not finish keeps its checkpoint, so it can be resumed
+            if (checkpoint != null && !failed) {
+                checkpoint.delete();
+            }
+            stats.disk(System.nanoTime() - diskStart);
+            stats.end();
+            if (decompressor != null) {
+                decompressor.end();
+            }
+
+            synchronized (receiveLock) {
+                streams.remove(id);
+                this.failed = failed;
+                done = true;
+                receiveLock.notifyAll();
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,125 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/*
+ * A set of files the server sends in one transfer, given as file names, glob patterns and directories.
+ * The transfer starts with a manifest holding the size and name of every file, one per line and ended
+ * by an empty line, followed by the contents of the files one after another. Small files are packed
+ * into full packets, and one request, one window and one final packet serve the whole set.
+ */
+public class RxPBatch {
+
+    private final List<File> files = new ArrayList<>();
+    private final List<Long> sizes = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    //names already in the batch, so a file matched twice is only sent once
+    private final Set<String> added = new HashSet<>();
+
+    /*
+     * Finds the files to send. A name that matches nothing is left out.
+     * @param specs file names, directories, whose files are all sent, and patterns such as dir/*.txt,
+     * which match the files in one directory.
+     */
+    public RxPBatch(String[] specs) throws IOException {
+        for (String spec : specs) {
+            if (spec.isEmpty()) {
+                continue;
+            }
+            File file = new File(spec);
+            if (file.isDirectory()) {
+                List<Path> found = new ArrayList<>();
+                try (Stream<Path> walk = Files.walk(file.toPath())) {
+                    Iterator<Path> it = walk.iterator();
+                    while (it.hasNext()) {
+                        Path path = it.next();
+                        if (Files.isRegularFile(path)) {
+                            found.add(path);
+                        }
+                    }
+                }
+                Collections.sort(found);
+                for (Path path : found) {
+                    add(path);
+                }
+            } else if (isPattern(spec)) {
+                //only the last part of the name may be a pattern
+                int slash = spec.lastIndexOf('/');
+                Path dir = Paths.get(slash >= 0 ? spec.substring(0, slash + 1) : ".");
+                List<Path> found = new ArrayList<>();
+                if (Files.isDirectory(dir)) {
+                    try (DirectoryStream<Path> matches = Files.newDirectoryStream(dir, spec.substring(slash + 1))) {
+                        for (Path path : matches) {
+                            if (Files.isRegularFile(path)) {
+                                found.add(slash >= 0 ? path : path.getFileName());
+                            }
+                        }
+                    }
+                }
+                Collections.sort(found);
+                for (Path path : found) {
+                    add(path);
+                }
+            } else if (file.isFile()) {
+                add(file.toPath());
+            }
+        }
+    }
+
+    /*
+     * Returns whether a name is a glob pattern rather than the name of a file.
+     */
+    public static boolean isPattern(String name) {
+        return name.indexOf('*') >= 0 || name.indexOf('?') >= 0 || name.indexOf('[') >= 0 || name.indexOf('{') >= 0;
+    }
+
+    private void add(Path path) throws IOException {
+        String name = path.toString().replace(File.separatorChar, '/');
+        //the manifest has one name per line
+        if (name.indexOf('\n') < 0 && added.add(name)) {
+            files.add(path.toFile());
+            //the size is taken once, so the manifest and the contents sent always agree
+            sizes.add(Files.size(path));
+            names.add(name);
+        }
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /*
+     * Returns the manifest sent before the contents of the files.
+     */
+    public byte[] getManifest() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            sb.append(sizes.get(i)).append(' ').append(names.get(i)).append('\n');
+        }
+        sb.append('\n');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Returns a reader for the manifest followed by the contents of the files.
+     * @param segmentSize the number of bytes in each segment.
+     */
+    public RxPFileReader openReader(int segmentSize) {
+        long[] lengths = new long[sizes.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = sizes.get(i);
+        }
+        return new RxPFileReader(getManifest(), files, new long[lengths.length], lengths, segmentSize);
+    }
+}
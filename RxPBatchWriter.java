@@ -0,0 +1,157 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Receives a batch of files sent by the server as an RxPBatch: reads the manifest at the start of the
+ * transfer, then splits the contents that follow into the files it lists, opening them one at a time.
+ * The data of the transfer is written to it in order, as it would be to a file.
+ */
+public class RxPBatchWriter implements WritableByteChannel {
+
+    //the manifest until its empty last line has arrived
+    private ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+    private boolean manifestRead = false;
+    private byte lastByte = '\n';
+    private final List<String> names = new ArrayList<>();
+    private final List<Long> sizes = new ArrayList<>();
+
+    //file being written, and bytes of it still to come
+    private int fileIndex = -1;
+    private FileChannel current;
+    private long remaining;
+    private boolean open = true;
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            if (!manifestRead) {
+                byte b = src.get();
+                manifest.write(b);
+                //the manifest ends with an empty line
+                if (b == '\n' && lastByte == '\n') {
+                    readManifest(new String(manifest.toByteArray(), StandardCharsets.UTF_8));
+                    manifest = null;
+                    manifestRead = true;
+                    nextFile();
+                }
+                lastByte = b;
+            } else if (current == null) {
+                throw new IOException("More data arrived than the manifest lists.");
+            } else {
+                int limit = src.limit();
+                src.limit(src.position() + (int) Math.min(src.remaining(), remaining));
+                try {
+                    while (src.hasRemaining()) {
+                        remaining -= current.write(src);
+                    }
+                } finally {
+                    src.limit(limit);
+                }
+                if (remaining == 0) {
+                    nextFile();
+                }
+            }
+        }
+        return written;
+    }
+
+    /*
+     * Reads the size and name of each file from the manifest.
+     */
+    private void readManifest(String text) throws IOException {
+        for (String line : text.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                throw new IOException("Invalid manifest.");
+            }
+            try {
+                sizes.add(Long.parseLong(line.substring(0, space)));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid manifest.");
+            }
+            String name = line.substring(space + 1);
+            //files are only written below the current directory
+            while (name.startsWith("/")) {
+                name = name.substring(1);
+            }
+            for (String part : name.split("/")) {
+                if (part.equals("..")) {
+                    throw new IOException("Invalid file name " + name + ".");
+                }
+            }
+            names.add(name);
+        }
+    }
+
+    /*
+     * Closes the file that is done and opens the next one with bytes to come, creating empty files on the way.
+     */
+    private void nextFile() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        while (++fileIndex < names.size()) {
+            Path path = Paths.get(RxPAPI.receivedName(names.get(fileIndex)));
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            current = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            remaining = sizes.get(fileIndex);
+            if (remaining > 0) {
+                return;
+            }
+            current.close();
+            current = null;
+        }
+    }
+
+    /*
+     * Forces the file being written to disk.
+     */
+    public void force() throws IOException {
+        if (current != null) {
+            current.force(false);
+        }
+    }
+
+    /*
+     * Returns whether every file in the manifest has been received.
+     */
+    public boolean isComplete() {
+        return manifestRead && fileIndex >= names.size();
+    }
+
+    public int getFileCount() {
+        return names.size();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+}
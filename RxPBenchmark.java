@@ -0,0 +1,93 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+public class RxPBenchmark {
+
+    public static void main(String[] args) throws IOException {
+
+        //check arguments
+        if (args.length > 4) {
+            System.out.println("Invalid number of arguments.");
+            System.out.println("Parameters: [S] [W] [X] [E]");
+            System.out.println("S is the size of the test file in kilobytes (default 1024).");
+            System.out.println("W is the largest window size to measure (default 64).");
+            System.out.println("X is the port number the client binds to; the server uses X + 1 (default 8080).");
+            System.out.println("E is the server engine, blocking or nio (default blocking).");
+            System.exit(0);
+        }
+
+        int sizeKB = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int maxWindow = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int clientPort = args.length > 2 ? Integer.parseInt(args[2]) : 8080;
+        int serverPort = clientPort + 1;
+        final boolean eventLoop = args.length > 3 && args[3].equals("nio");
+
+        //create a file of random bytes for the server to send
+        String fileName = "rxpbench.dat";
+        File file = new File(fileName);
+        File downloaded = new File("rxpbench1.dat");
+        byte[] contents = new byte[sizeKB * 1024];
+        new Random(3251).nextBytes(contents);
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(contents);
+        fileOutputStream.close();
+
+        //client and server talk to each other directly over loopback
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        final RxPAPI serverRxP = new RxPAPI(loopback, serverPort, clientPort, false);
+        RxPAPI clientRxP = new RxPAPI(loopback, clientPort, serverPort, true);
+
+        Thread server = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (eventLoop) {
+                        serverRxP.eventLoop();
+                    } else {
+                        serverRxP.listen();
+                    }
+                } catch (IOException e) {
+                    System.out.println("Server error.");
+                }
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+        //download whole files as they are, not just what differs from the file next to the download, and not
+        //compressed, so the transfer itself is measured
+        clientRxP.setDelta("off");
+        clientRxP.setCompression("off");
+        clientRxP.createConnection();
+
+        StringBuilder results = new StringBuilder();
+        results.append(String.format("%8s %12s %12s%n", "window", "time (ms)", "KB/s"));
+        for (int window = 1; window <= maxWindow; window *= 2) {
+            clientRxP.updateWindow(Integer.toString(window));
+
+            long start = System.nanoTime();
+            clientRxP.recvFrom(fileName);
+            long elapsed = System.nanoTime() - start;
+
+            if (!Arrays.equals(contents, Files.readAllBytes(downloaded.toPath()))) {
+                System.out.println("Downloaded file does not match for window " + window + ".");
+            }
+            double ms = elapsed / 1e6;
+            results.append(String.format("%8d %12.1f %12.1f%n", window, ms, sizeKB / (ms / 1000)));
+        }
+
+        System.out.println();
+        System.out.println("Goodput for a " + sizeKB + " KB file over loopback (" + (eventLoop ? "nio" : "blocking")
+                + " server):");
+        System.out.print(results);
+
+        file.delete();
+        downloaded.delete();
+        System.exit(0);
+    }
+}
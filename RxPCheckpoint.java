@@ -0,0 +1,122 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/*
+ * Remembers how much of a download has safely reached the disk, in a small file next to the received
+ * file, so a download that was interrupted can carry on from there instead of starting again. It only
+ * ever counts bytes that were forced to disk before it was saved.
+ * It also remembers the version of the file on the server, so a download is not resumed onto bytes of a
+ * file that has changed since.
+ */
+public class RxPCheckpoint {
+
+    private final Path path;
+    //the file on the server and the part of it asked for, with -1 as the length for the rest of the file
+    private final String name;
+    private final long offset;
+    private final long length;
+    //the size and modification time of the file on the server, or null if the server does not tell them;
+    //a new download may only learn them after it has started
+    private volatile String version;
+    //bytes from the offset on that are on disk
+    private long received;
+
+    /*
+     * @param receivedName the name of the received file.
+     * @param name the name of the file on the server.
+     * @param offset the position of the first byte asked for.
+     * @param length the number of bytes asked for, or -1 for the rest of the file.
+     * @param version the size and modification time of the file on the server, or null.
+     */
+    public RxPCheckpoint(String receivedName, String name, long offset, long length, String version) {
+        this.path = Paths.get(receivedName + ".checkpoint");
+        this.name = name;
+        this.offset = offset;
+        this.length = length;
+        this.version = version;
+    }
+
+    /*
+     * Returns the checkpoint saved for a received file, or null if there is none that can be read.
+     * @param receivedName the name of the received file.
+     */
+    public static RxPCheckpoint load(String receivedName) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(Paths.get(receivedName + ".checkpoint"))) {
+            properties.load(in);
+            RxPCheckpoint checkpoint = new RxPCheckpoint(receivedName, properties.getProperty("name"),
+                    Long.parseLong(properties.getProperty("offset")), Long.parseLong(properties.getProperty("length")),
+                    properties.getProperty("version"));
+            checkpoint.received = Long.parseLong(properties.getProperty("received"));
+            return checkpoint.name != null ? checkpoint : null;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Returns whether this checkpoint belongs to a download of the same part of the same file.
+     */
+    public boolean isFor(String name, long offset, long length) {
+        return this.name.equals(name) && this.offset == offset && this.length == length;
+    }
+
+    /*
+     * Returns whether this checkpoint was saved for the same version of the file. Without a version on
+     * either side the file is taken to be unchanged, as the server cannot tell.
+     */
+    public boolean isVersion(String version) {
+        return this.version == null ? version == null : this.version.equals(version);
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public void setReceived(long received) {
+        this.received = received;
+    }
+
+    /*
+     * Writes the checkpoint, replacing the old one in one step so it is never found half written.
+     */
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("name", name);
+        properties.setProperty("offset", Long.toString(offset));
+        properties.setProperty("length", Long.toString(length));
+        properties.setProperty("received", Long.toString(received));
+        if (version != null) {
+            properties.setProperty("version", version);
+        }
+        Path temp = Paths.get(path + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "RxP download checkpoint");
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Removes the checkpoint once the download is complete.
+     */
+    public void delete() {
+        try {
+            Files.delete(path);
+        } catch (NoSuchFileException e) {
+            //never saved
+        } catch (IOException e) {
+            System.out.println("Could not remove " + path + ".");
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/*
+ * Calculates packet checksums in a single pass over the header and payload, without putting the
+ * packet back together first. The checksum field itself is treated as zero.
+ * CRC32C is usually computed with a dedicated CPU instruction and is much faster than CRC32, so it is
+ * offered during the handshake; CRC32 remains the default for peers that do not negotiate.
+ * An instance keeps its checksum objects for reuse and must only be used by one thread at a time.
+ */
+public class RxPChecksum {
+
+    //checksum types, as negotiated during the handshake
+    public static final int CRC32 = 0;
+    public static final int CRC32C = 1;
+
+    private static final String[] NAMES = {"crc32", "crc32c"};
+    //reversed polynomials of each type
+    private static final int[] POLYNOMIALS = {0xedb88320, 0x82f63b78};
+    private static final byte[] ZEROS = new byte[4];
+
+    private final Checksum[] checksums = {new CRC32(), new CRC32C()};
+
+    /*
+     * Returns the type with the given name, or -1 if there is none.
+     */
+    public static int parse(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static String getName(int type) {
+        return NAMES[type];
+    }
+
+    /*
+     * Calculates the checksum of a packet in a buffer, leaving the buffer's position and limit unchanged.
+     * @param type the checksum type.
+     * @param buffer the buffer holding the packet.
+     * @param offset the absolute offset of the packet in the buffer.
+     * @param length the length of the packet.
+     */
+    public int calculate(int type, ByteBuffer buffer, int offset, int length) {
+        Checksum checksum = checksums[type];
+        checksum.reset();
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int start = buffer.arrayOffset() + offset;
+            checksum.update(array, start, RxPCodec.CHECKSUM);
+            checksum.update(ZEROS, 0, ZEROS.length);
+            checksum.update(array, start + RxPCodec.FLAGS, length - RxPCodec.FLAGS);
+        } else {
+            int position = buffer.position();
+            int limit = buffer.limit();
+            try {
+                buffer.limit(offset + RxPCodec.CHECKSUM).position(offset);
+                checksum.update(buffer);
+                checksum.update(ZEROS, 0, ZEROS.length);
+                buffer.limit(offset + length).position(offset + RxPCodec.FLAGS);
+                checksum.update(buffer);
+            } finally {
+                buffer.limit(limit).position(position);
+            }
+        }
+        return (int) checksum.getValue();
+    }
+
+    /*
+     * Calculates the checksum of some bytes on their own, such as the payload of a packet.
+     * @param type the checksum type.
+     * @param bytes the array holding the bytes.
+     * @param offset the offset of the first byte.
+     * @param length the number of bytes.
+     */
+    public int calculate(int type, byte[] bytes, int offset, int length) {
+        Checksum checksum = checksums[type];
+        checksum.reset();
+        checksum.update(bytes, offset, length);
+        return (int) checksum.getValue();
+    }
+
+    /*
+     * Returns the operator that turns the checksum of some bytes into the checksum of the same bytes
+     * followed by the given number of zero bytes. It is a 32 by 32 matrix over GF(2), built by squaring
+     * the operator for a single zero bit as in zlib's crc32_combine(), and returned as four tables of
+     * 256 entries, one for each byte of a checksum, so applying it takes four lookups.
+     * @param type the checksum type.
+     * @param length the number of zero bytes.
+     */
+    public static int[] zerosOperator(int type, long length) {
+        //operator for one zero bit, then for two and four
+        int[] odd = new int[32];
+        odd[0] = POLYNOMIALS[type];
+        for (int n = 1; n < 32; n++) {
+            odd[n] = 1 << (n - 1);
+        }
+        int[] even = square(odd);
+        odd = square(even);
+
+        //the operator for each power of two bytes, combined for the bits of the length
+        int[] result = null;
+        int[] power = odd;
+        while (length != 0) {
+            power = square(power);
+            if ((length & 1) != 0) {
+                result = result == null ? power : compose(power, result);
+            }
+            length >>>= 1;
+        }
+        if (result == null) {
+            //no zero bytes leave the checksum as it is
+            result = new int[32];
+            for (int n = 0; n < 32; n++) {
+                result[n] = 1 << n;
+            }
+        }
+
+        int[] tables = new int[4 * 256];
+        for (int b = 0; b < 4; b++) {
+            for (int v = 0; v < 256; v++) {
+                tables[b * 256 + v] = times(result, v << (8 * b));
+            }
+        }
+        return tables;
+    }
+
+    /*
+     * Returns the checksum of two pieces of data one after another, given the checksum of each.
+     * @param zerosOperator the operator for the length of the second piece, from zerosOperator().
+     * @param first the checksum of the first piece.
+     * @param second the checksum of the second piece.
+     */
+    public static int combine(int[] zerosOperator, int first, int second) {
+        return zerosOperator[first & 0xff] ^ zerosOperator[256 + ((first >>> 8) & 0xff)]
+                ^ zerosOperator[512 + ((first >>> 16) & 0xff)] ^ zerosOperator[768 + (first >>> 24)] ^ second;
+    }
+
+    private static int times(int[] matrix, int vector) {
+        int sum = 0;
+        for (int n = 0; vector != 0; n++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[n];
+            }
+        }
+        return sum;
+    }
+
+    private static int[] compose(int[] outer, int[] inner) {
+        int[] result = new int[32];
+        for (int n = 0; n < 32; n++) {
+            result[n] = times(outer, inner[n]);
+        }
+        return result;
+    }
+
+    private static int[] square(int[] matrix) {
+        return compose(matrix, matrix);
+    }
+
+    /*
+     * Calculates the checksum of a packet given as its encoded header and its payload.
+     * @param type the checksum type.
+     * @param header the encoded header.
+     * @param data the payload, or null if there is none.
+     */
+    public int calculate(int type, byte[] header, byte[] data) {
+        Checksum checksum = checksums[type];
+        checksum.reset();
+        checksum.update(header, 0, RxPCodec.CHECKSUM);
+        checksum.update(ZEROS, 0, ZEROS.length);
+        checksum.update(header, RxPCodec.FLAGS, RxPCodec.HEADER_SIZE - RxPCodec.FLAGS);
+        if (data != null) {
+            checksum.update(data, 0, data.length);
+        }
+        return (int) checksum.getValue();
+    }
+}
@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class RxPChecksumBenchmark {
+
+    //packet sizes measured: the default 255 byte payload, an Ethernet sized datagram and a large loopback datagram
+    private static final int[] PACKET_SIZES = {255 + RxPCodec.HEADER_SIZE, 1500, 65507};
+
+    public static void main(String[] args) {
+
+        //check arguments
+        if (args.length > 1) {
+            System.out.println("Invalid number of arguments.");
+            System.out.println("Parameters: [G]");
+            System.out.println("G is the number of gigabytes to checksum for each measurement (default 1).");
+            System.exit(0);
+        }
+
+        long totalBytes = (long) ((args.length > 0 ? Double.parseDouble(args[0]) : 1) * (1L << 30));
+
+        System.out.println(String.format("%-28s %8s %12s %12s", "method", "packet", "ms per GB", "ns/packet"));
+        for (int packetSize : PACKET_SIZES) {
+            //build a packet with random data
+            byte[] data = new byte[packetSize - RxPCodec.HEADER_SIZE];
+            new Random(3251).nextBytes(data);
+            RxPHeader header = new RxPHeader(8080, 8081, 1);
+            RxPPacket packet = new RxPPacket(header, data);
+            ByteBuffer heap = ByteBuffer.wrap(packet.getPacketByteArray());
+            ByteBuffer direct = ByteBuffer.allocateDirect(packetSize);
+            direct.put(heap.duplicate()).flip();
+
+            long packets = Math.max(1, totalBytes / packetSize);
+
+            //old method of re-serializing the whole packet, limited so small packets don't take too long
+            report("re-serialize (crc32)", packetSize, Math.min(packets, 2000000), packet, -1, null);
+            for (int type = RxPChecksum.CRC32; type <= RxPChecksum.CRC32C; type++) {
+                report("RxPPacket (" + RxPChecksum.getName(type) + ")", packetSize, Math.min(packets, 2000000), packet, type, null);
+                report("RxPCodec heap (" + RxPChecksum.getName(type) + ")", packetSize, packets, null, type, heap);
+                report("RxPCodec direct (" + RxPChecksum.getName(type) + ")", packetSize, packets, null, type, direct);
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * Times checksumming a packet repeatedly and prints the cost per gigabyte and per packet.
+     * @param name the name of the method measured.
+     * @param packetSize the size of the packet in bytes.
+     * @param packets how many times to checksum the packet.
+     * @param packet the packet to checksum through RxPPacket, or null to use the codec.
+     * @param type the checksum type, or -1 for the old re-serializing method.
+     * @param buffer the buffer holding the packet for the codec.
+     */
+    private static void report(String name, int packetSize, long packets, RxPPacket packet, int type, ByteBuffer buffer) {
+        RxPCodec codec = new RxPCodec();
+        if (buffer != null) {
+            codec.wrap(buffer);
+            codec.setChecksumType(type);
+        }
+
+        int sink = 0;
+        //warm up, then measure
+        for (int round = 0; round < 2; round++) {
+            long count = round == 0 ? Math.min(packets, 100000) : packets;
+            long start = System.nanoTime();
+            for (long i = 0; i < count; i++) {
+                if (packet == null) {
+                    sink += codec.calculateChecksum();
+                } else if (type < 0) {
+                    sink += oldChecksum(packet);
+                } else {
+                    sink += packet.calculateChecksum(type);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round == 1) {
+                double nsPerPacket = (double) elapsed / count;
+                double msPerGB = nsPerPacket / packetSize * (1L << 30) / 1e6;
+                System.out.println(String.format("%-28s %8d %12.1f %12.1f", name, packetSize, msPerGB, nsPerPacket));
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * The checksum as RxPPacket used to calculate it: serialize the whole packet, zero the checksum field
+     * and run a new CRC32 over it.
+     * @param packet the packet to checksum.
+     */
+    private static int oldChecksum(RxPPacket packet) {
+        java.util.zip.CRC32 checksum = new java.util.zip.CRC32();
+        byte[] packetByteArray = packet.getPacketByteArray();
+        packetByteArray[16] = 0x00;
+        packetByteArray[17] = 0x00;
+        packetByteArray[18] = 0x00;
+        packetByteArray[19] = 0x00;
+        checksum.update(packetByteArray);
+        return (int) checksum.getValue();
+    }
+}
@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/*
+ * Encodes and decodes RxP packets directly in a ByteBuffer, heap or direct, without copying or
+ * allocating per packet. A codec is a flyweight: wrap() points it at a packet in a buffer, and the
+ * getters and setters then read and write the header fields in place.
+ * RxPHeader and RxPPacket remain as convenience wrappers on top of the same wire format.
+ */
+public class RxPCodec {
+
+    public static final int HEADER_SIZE = 28;
+
+    //offsets of the header fields
+    public static final int SOURCE_PORT = 0;
+    public static final int DESTINATION_PORT = 4;
+    public static final int SEQUENCE_NUMBER = 8;
+    public static final int ACK_NUMBER = 12;
+    public static final int CHECKSUM = 16;
+    public static final int FLAGS = 20;
+    public static final int TIMESTAMP = 24;
+
+    //bits of the flags field
+    public static final int ACK = 1 << 31;
+    public static final int SYN = 1 << 30;
+    public static final int FIN = 1 << 29;
+    //set on data packets whose payload is compressed
+    public static final int COMPRESSED = 1 << 28;
+    //set on parity packets, which repair a lost packet of the group before them
+    public static final int PARITY = 1 << 27;
+    //set on data packets after which the sender has to wait for an ACK, so the client does not delay it
+    public static final int ACK_NOW = 1 << 26;
+    //set on ACKs from a client that has waited long enough for the packet after the one acknowledged
+    public static final int NAK = 1 << 25;
+    //the low bits of the flags field hold the stream a packet belongs to
+    public static final int STREAM = 0xffff;
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    private final RxPChecksum checksum = new RxPChecksum();
+    private int checksumType = RxPChecksum.CRC32;
+
+    /*
+     * Points the codec at the packet between the buffer's position and limit.
+     */
+    public RxPCodec wrap(ByteBuffer buffer) {
+        return wrap(buffer, buffer.position(), buffer.remaining());
+    }
+
+    /*
+     * Points the codec at a packet of the given length starting at an absolute offset in the buffer.
+     */
+    public RxPCodec wrap(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    /*
+     * Returns whether the wrapped bytes are long enough to hold a header.
+     */
+    public boolean isValid() {
+        return length >= HEADER_SIZE;
+    }
+
+    /*
+     * Writes a header at the buffer's position and advances the position past it.
+     */
+    public static void encodeHeader(ByteBuffer dst, int sourcePort, int destinationPort, int sequenceNumber,
+                                    int ackNumber, int checksum, int flags, int timestamp) {
+        dst.putInt(sourcePort);
+        dst.putInt(destinationPort);
+        dst.putInt(sequenceNumber);
+        dst.putInt(ackNumber);
+        dst.putInt(checksum);
+        dst.putInt(flags);
+        dst.putInt(timestamp);
+    }
+
+    /*
+     * Combines the flag bits into the value of the flags field.
+     */
+    public static int flags(boolean ACK, boolean SYN, boolean FIN) {
+        return (ACK ? RxPCodec.ACK : 0) | (SYN ? RxPCodec.SYN : 0) | (FIN ? RxPCodec.FIN : 0);
+    }
+
+    //getters and setters, read and written in place
+    public int getSourcePort() {
+        return buffer.getInt(offset + SOURCE_PORT);
+    }
+
+    public int getDestinationPort() {
+        return buffer.getInt(offset + DESTINATION_PORT);
+    }
+
+    public int getSequenceNumber() {
+        return buffer.getInt(offset + SEQUENCE_NUMBER);
+    }
+
+    public void setSequenceNumber(int sequenceNumber) {
+        buffer.putInt(offset + SEQUENCE_NUMBER, sequenceNumber);
+    }
+
+    public int getAckNumber() {
+        return buffer.getInt(offset + ACK_NUMBER);
+    }
+
+    public int getChecksum() {
+        return buffer.getInt(offset + CHECKSUM);
+    }
+
+    public void setChecksum(int checksum) {
+        buffer.putInt(offset + CHECKSUM, checksum);
+    }
+
+    public int getFlags() {
+        return buffer.getInt(offset + FLAGS);
+    }
+
+    public void setFlags(int flags) {
+        buffer.putInt(offset + FLAGS, flags);
+    }
+
+    public boolean isACK() {
+        return (getFlags() & ACK) != 0;
+    }
+
+    public boolean isSYN() {
+        return (getFlags() & SYN) != 0;
+    }
+
+    public boolean isFIN() {
+        return (getFlags() & FIN) != 0;
+    }
+
+    public boolean isCompressed() {
+        return (getFlags() & COMPRESSED) != 0;
+    }
+
+    public boolean isParity() {
+        return (getFlags() & PARITY) != 0;
+    }
+
+    public boolean isAckNow() {
+        return (getFlags() & ACK_NOW) != 0;
+    }
+
+    public boolean isNak() {
+        return (getFlags() & NAK) != 0;
+    }
+
+    public int getStream() {
+        return getFlags() & STREAM;
+    }
+
+    public int getTimestamp() {
+        return buffer.getInt(offset + TIMESTAMP);
+    }
+
+    public void setTimestamp(int timestamp) {
+        buffer.putInt(offset + TIMESTAMP, timestamp);
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getChecksumType() {
+        return checksumType;
+    }
+
+    /*
+     * Selects the checksum used by calculateChecksum(), as negotiated during the handshake.
+     */
+    public void setChecksumType(int checksumType) {
+        this.checksumType = checksumType;
+    }
+
+    public int getDataLength() {
+        return length - HEADER_SIZE;
+    }
+
+    /*
+     * Reads an int from the payload.
+     * @param position where it starts, counted from the start of the payload.
+     */
+    public int getDataInt(int position) {
+        return buffer.getInt(offset + HEADER_SIZE + position);
+    }
+
+    /*
+     * Copies the payload into a byte array.
+     */
+    public void getData(byte[] dst, int dstOffset) {
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset + HEADER_SIZE, dst, dstOffset, getDataLength());
+        } else {
+            ByteBuffer data = buffer.duplicate();
+            data.limit(offset + length).position(offset + HEADER_SIZE);
+            data.get(dst, dstOffset, getDataLength());
+        }
+    }
+
+    /*
+     * Copies the whole packet, header and payload, into a byte array.
+     */
+    public void getPacket(byte[] dst, int dstOffset) {
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, dst, dstOffset, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = buffer.get(offset + i);
+            }
+        }
+    }
+
+    /*
+     * Writes the whole payload to a channel straight from the wrapped buffer.
+     */
+    public void writeData(WritableByteChannel channel) throws IOException {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        try {
+            buffer.limit(offset + length).position(offset + HEADER_SIZE);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            buffer.limit(limit).position(position);
+        }
+    }
+
+    /*
+     * Calculates the checksum of the wrapped packet in place, treating the checksum field as zero.
+     */
+    public int calculateChecksum() {
+        return checksum.calculate(checksumType, buffer, offset, length);
+    }
+
+    /*
+     * Calculates the checksum of the header of the wrapped packet on its own, treating the checksum field
+     * as zero, for adding the checksum of a payload that is already known.
+     */
+    public int calculateHeaderChecksum() {
+        return checksum.calculate(checksumType, buffer, offset, HEADER_SIZE);
+    }
+
+    /*
+     * Updates the checksum field of the wrapped packet.
+     */
+    public void updateChecksum() {
+        setChecksum(calculateChecksum());
+    }
+
+    /*
+     * Returns whether the checksum field matches the contents of the wrapped packet.
+     */
+    public boolean verifyChecksum() {
+        return isValid() && getChecksum() == calculateChecksum();
+    }
+}
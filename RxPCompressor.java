@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/*
+ * Base class for the compressors that can be negotiated for file data.
+ * A transfer compresses its segments one after another as one stream, flushed at the end of each
+ * segment, so every packet holds exactly one compressed segment and the history of earlier segments
+ * still helps. The receiver takes packets in order and decompresses them in the same order.
+ * The sender samples how well its segments compress, and sends them as they are, without spending time
+ * compressing them, while they do not shrink enough, such as for files that are already compressed.
+ * An instance is used by one transfer on one side and must only be used by one thread at a time.
+ */
+public abstract class RxPCompressor {
+
+    //segments that are compressed before deciding whether compressing is worth it
+    private static final int SAMPLE_SEGMENTS = 8;
+    //compress only while segments shrink to at most this part of their size
+    private static final double MAX_RATIO = 0.9;
+    //segments sent as they are before trying to compress again
+    private static final int BYPASS_SEGMENTS = 512;
+    //segments smaller than this, such as small files, are sent as they are
+    private static final int MIN_SEGMENT = 64;
+
+    //the largest payload of a packet
+    private int mss;
+    //a segment as it is in the file, and compressed
+    private byte[] plain;
+    private byte[] packed;
+
+    //the sender's sample of segments, and how many more to send without compressing
+    private long sampleIn = 0;
+    private long sampleOut = 0;
+    private int sampled = 0;
+    private int bypass = 0;
+
+    /*
+     * Creates a compressor by name.
+     * @param name the name agreed on during the handshake.
+     * @param mss the largest payload of a packet.
+     */
+    public static RxPCompressor create(String name, int mss) {
+        RxPCompressor compressor;
+        if (name.equals("deflate")) {
+            compressor = new RxPDeflateCompressor();
+        } else {
+            throw new IllegalArgumentException("Unknown compressor: " + name);
+        }
+        compressor.mss = mss;
+        return compressor;
+    }
+
+    /*
+     * Returns whether there is a compressor with the given name.
+     */
+    public static boolean exists(String name) {
+        return name.equals("deflate");
+    }
+
+    /*
+     * Returns the names of the compressors, the preferred one first, as offered during the handshake.
+     */
+    public static String[] getNames() {
+        return new String[] {"deflate"};
+    }
+
+    /*
+     * Returns the largest segment that still fits in a packet of the given payload size once compressed,
+     * even if it does not compress at all.
+     * @param mss the largest payload of a packet.
+     */
+    public static int segmentSize(int mss) {
+        return mss - (mss >> 11) - 32;
+    }
+
+    /*
+     * Returns the buffer the sender reads the next segment into, cleared and limited to the segment size.
+     */
+    public ByteBuffer segmentBuffer() {
+        if (plain == null) {
+            plain = new byte[mss];
+        }
+        return ByteBuffer.wrap(plain, 0, segmentSize(mss));
+    }
+
+    /*
+     * Writes the segment read into the segment buffer to a packet, compressed unless that has not been
+     * worth it lately.
+     * @param segment the segment buffer, flipped after reading.
+     * @param packet the packet, positioned after the header.
+     * @param stats the metrics of the transfer, which count the bytes compressed.
+     * @return whether the segment was compressed.
+     * @throws java.io.IOException if the compressed segment does not fit.
+     */
+    public boolean encode(ByteBuffer segment, ByteBuffer packet, RxPStats stats) throws IOException {
+        int length = segment.remaining();
+        if (length < MIN_SEGMENT || !shouldCompress()) {
+            packet.put(segment);
+            return false;
+        }
+        if (packed == null) {
+            packed = new byte[mss];
+        }
+        int count = compress(plain, length, packed, 0, Math.min(packet.remaining(), packed.length));
+        sample(length, count);
+        stats.compressed(length, count);
+        packet.put(packed, 0, count);
+        return true;
+    }
+
+    /*
+     * Decompresses the payload of a packet that was sent compressed. Packets must be given in the order
+     * they were sent, each once.
+     * @param codec the codec pointing at the packet.
+     * @param stats the metrics of the transfer, which count the bytes decompressed.
+     * @return a buffer holding the segment, valid until the next packet.
+     * @throws java.io.IOException if the data is not valid.
+     */
+    public ByteBuffer decode(RxPCodec codec, RxPStats stats) throws IOException {
+        if (plain == null) {
+            plain = new byte[mss];
+        }
+        if (packed == null) {
+            packed = new byte[mss];
+        }
+        int length = codec.getDataLength();
+        if (length > packed.length) {
+            throw new IOException("Compressed segment is too large.");
+        }
+        codec.getData(packed, 0);
+        int count = decompress(packed, length, plain);
+        stats.compressed(count, length);
+        return ByteBuffer.wrap(plain, 0, count);
+    }
+
+    /*
+     * Returns whether the sender should compress the next segment, or send it as it is because recent
+     * segments did not compress well enough.
+     */
+    private boolean shouldCompress() {
+        if (bypass > 0) {
+            bypass--;
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Records how much a segment the sender compressed shrank, and stops compressing for a while if the
+     * last few did not shrink enough.
+     * @param in the size of the segment.
+     * @param out the size of the segment compressed.
+     */
+    private void sample(int in, int out) {
+        sampleIn += in;
+        sampleOut += out;
+        if (++sampled == SAMPLE_SEGMENTS) {
+            if (sampleOut > sampleIn * MAX_RATIO) {
+                bypass = BYPASS_SEGMENTS;
+            }
+            sampleIn = 0;
+            sampleOut = 0;
+            sampled = 0;
+        }
+    }
+
+    /*
+     * Compresses the next segment of the stream.
+     * @param src the array holding the segment.
+     * @param length the size of the segment, which starts at the beginning of the array.
+     * @param dst the array to write the compressed segment to.
+     * @param offset where to write it.
+     * @param space how many bytes may be written.
+     * @return the size of the compressed segment.
+     * @throws java.io.IOException if it does not fit.
+     */
+    public abstract int compress(byte[] src, int length, byte[] dst, int offset, int space) throws IOException;
+
+    /*
+     * Decompresses the next segment of the stream.
+     * @param src the array holding the compressed segment.
+     * @param length the size of the compressed segment, which starts at the beginning of the array.
+     * @param dst the array to write the segment to, which must be large enough for a whole segment.
+     * @return the size of the segment.
+     * @throws java.io.IOException if the data is not valid.
+     */
+    public abstract int decompress(byte[] src, int length, byte[] dst) throws IOException;
+
+    /*
+     * Frees what the compressor holds once the transfer is over.
+     */
+    public abstract void end();
+}
@@ -0,0 +1,124 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/*
+ * Base class for the congestion controllers used by the sliding window sender.
+ * The sender keeps at most min(getWindow(), receiver window) packets in flight and reports ACKs,
+ * losses and timeouts back to the controller.
+ */
+public abstract class RxPCongestionControl {
+
+    //window a transfer starts with, in packets
+    protected static final int INITIAL_WINDOW = 2;
+    //smallest window after a loss, in packets
+    protected static final int MIN_WINDOW = 2;
+    //stop recording the window once this many changes have been traced
+    private static final int MAX_TRACE = 100000;
+
+    protected double cwnd;
+    protected double ssthresh;
+
+    //window over time, as milliseconds since the transfer started and window size in packets
+    private long start;
+    private long[] traceTimes = new long[64];
+    private int[] traceWindows = new int[64];
+    private int traceLength = 0;
+
+    public RxPCongestionControl() {
+        this.cwnd = INITIAL_WINDOW;
+        this.ssthresh = Integer.MAX_VALUE;
+        this.start = System.currentTimeMillis();
+        record();
+    }
+
+    /*
+     * Creates a congestion controller by name.
+     */
+    public static RxPCongestionControl create(String name) {
+        if (name.equals("reno")) {
+            return new RxPRenoControl();
+        } else if (name.equals("cubic")) {
+            return new RxPCubicControl();
+        }
+        throw new IllegalArgumentException("Unknown congestion control: " + name);
+    }
+
+    /*
+     * Returns whether there is a congestion controller with the given name.
+     */
+    public static boolean exists(String name) {
+        return name.equals("reno") || name.equals("cubic");
+    }
+
+    /*
+     * Called when an ACK acknowledges new packets.
+     * @param acked the number of packets newly acknowledged.
+     * @param srtt the smoothed round trip time in microseconds.
+     */
+    public abstract void onAck(int acked, int srtt);
+
+    /*
+     * Called once per window when duplicate ACKs show that a packet was lost.
+     * @param inFlight the number of packets in flight when the loss was detected.
+     */
+    public abstract void onLoss(int inFlight);
+
+    /*
+     * Called when the retransmission timer runs out. Goes back to slow start from a single packet.
+     * @param inFlight the number of packets in flight when the timer ran out.
+     */
+    public void onTimeout(int inFlight) {
+        ssthresh = Math.max(inFlight / 2, MIN_WINDOW);
+        cwnd = 1;
+        record();
+    }
+
+    /*
+     * Returns the congestion window in whole packets.
+     */
+    public int getWindow() {
+        return Math.max(1, (int) cwnd);
+    }
+
+    /*
+     * Adds the current window to the trace if it changed.
+     */
+    protected synchronized void record() {
+        int window = getWindow();
+        if (traceLength > 0 && traceWindows[traceLength - 1] == window) {
+            return;
+        }
+        if (traceLength == MAX_TRACE) {
+            return;
+        }
+        if (traceLength == traceTimes.length) {
+            int newLength = Math.min(traceTimes.length * 2, MAX_TRACE);
+            long[] newTimes = new long[newLength];
+            int[] newWindows = new int[newLength];
+            System.arraycopy(traceTimes, 0, newTimes, 0, traceLength);
+            System.arraycopy(traceWindows, 0, newWindows, 0, traceLength);
+            traceTimes = newTimes;
+            traceWindows = newWindows;
+        }
+        traceTimes[traceLength] = System.currentTimeMillis() - start;
+        traceWindows[traceLength] = window;
+        traceLength++;
+    }
+
+    /*
+     * Writes the window over time to a file as comma separated values.
+     */
+    public synchronized void writeTrace(String filename) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(filename));
+        writer.println("ms,cwnd");
+        for (int i = 0; i < traceLength; i++) {
+            writer.println(traceTimes[i] + "," + traceWindows[i]);
+        }
+        writer.close();
+    }
+
+    public double getSsthresh() {
+        return ssthresh;
+    }
+}
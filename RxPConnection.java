@@ -0,0 +1,353 @@
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * The state of one connection between a client and the server. A client has a single connection; the
+ * server keeps one for every client, keyed by the address the client's packets come from, so transfers
+ * to different clients never share windows, checksums, segment sizes or round trip times. A connection can
+ * carry several transfers at once, one per stream.
+ */
+public class RxPConnection {
+
+    //where packets for the other side are sent, and the port written in their headers
+    private final InetSocketAddress address;
+    private final int destPort;
+
+    private int windowSize = 1;
+
+    //checksum and payload bytes per packet after the handshake
+    private int checksumType = RxPChecksum.CRC32;
+    private int mss;
+    //how many streams may be used at once; a peer that does not know about streams only uses stream 0
+    private int maxStreams = 1;
+    //whether several files can be sent in one transfer, whether part of a file can be sent, and whether
+    //only the changes to a file the client has an older copy of can be sent
+    private boolean batch = false;
+    private boolean range = false;
+    private boolean delta = false;
+    //compressor used for file data, or null for none
+    private String compression;
+    //whether the server adds parity packets to its transfers
+    private boolean fec = false;
+    //whether the client's ACKs list the packets it holds beyond the one acknowledged
+    private boolean sack = false;
+    //whether the client's ACKs carry how many packets it has room for
+    private boolean rwnd = false;
+    //whether the client reports lost packets with NAKs
+    private boolean nak = false;
+    //whether a file can be sent in stripes, one per stream
+    private boolean stripe = false;
+    //whether the server tells the size and modification time of a file, so a resumed download can tell it changed
+    private boolean stat = false;
+    //how many packets received in order the client may acknowledge with one ACK, and how many microseconds
+    //it may hold that ACK back for; 1 acknowledges every packet at once
+    private int ackEvery = 1;
+    private int ackDelay = 0;
+
+    private String challenge;
+    private String fileName;
+
+    //number of the last file request on each stream, so repeats of a request are not served twice
+    private final Map<Integer, Integer> lastRequests = new ConcurrentHashMap<>();
+    //number the client gives its next file request, on whichever stream it is made
+    private final AtomicInteger requestNumber = new AtomicInteger();
+
+    //round trip time estimate used to derive retransmission timeouts
+    private final RxPRttEstimator rtt = new RxPRttEstimator();
+
+    //the server's transfers to this client by stream, which receive their ACKs
+    private final Map<Integer, RxPAPI.ServerSend> senders = new ConcurrentHashMap<>();
+
+    //metrics of every transfer on this connection, and of the last or current one
+    private final RxPStats stats = new RxPStats(null);
+    private volatile RxPStats transferStats;
+    //name the metrics are registered under with JMX, or null if they are not
+    private String mbeanName;
+
+    /*
+     * @param address where packets for the other side are sent.
+     * @param destPort the port of the other side written in packet headers.
+     * @param mss the segment size used until one is negotiated.
+     */
+    public RxPConnection(InetSocketAddress address, int destPort, int mss) {
+        this.address = address;
+        this.destPort = destPort;
+        this.mss = mss;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public int getDestPort() {
+        return destPort;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public int getChecksumType() {
+        return checksumType;
+    }
+
+    public void setChecksumType(int checksumType) {
+        this.checksumType = checksumType;
+    }
+
+    public int getMss() {
+        return mss;
+    }
+
+    public void setMss(int mss) {
+        this.mss = mss;
+    }
+
+    public int getMaxStreams() {
+        return maxStreams;
+    }
+
+    public void setMaxStreams(int maxStreams) {
+        this.maxStreams = maxStreams;
+    }
+
+    public boolean isBatch() {
+        return batch;
+    }
+
+    public void setBatch(boolean batch) {
+        this.batch = batch;
+    }
+
+    public boolean isRange() {
+        return range;
+    }
+
+    public void setRange(boolean range) {
+        this.range = range;
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    public boolean isFec() {
+        return fec;
+    }
+
+    public void setFec(boolean fec) {
+        this.fec = fec;
+    }
+
+    public boolean isSack() {
+        return sack;
+    }
+
+    public void setSack(boolean sack) {
+        this.sack = sack;
+    }
+
+    public boolean isRwnd() {
+        return rwnd;
+    }
+
+    public void setRwnd(boolean rwnd) {
+        this.rwnd = rwnd;
+    }
+
+    public boolean isNak() {
+        return nak;
+    }
+
+    public void setNak(boolean nak) {
+        this.nak = nak;
+    }
+
+    public boolean isStripe() {
+        return stripe;
+    }
+
+    public void setStripe(boolean stripe) {
+        this.stripe = stripe;
+    }
+
+    public boolean isStat() {
+        return stat;
+    }
+
+    public void setStat(boolean stat) {
+        this.stat = stat;
+    }
+
+    public int getAckEvery() {
+        return ackEvery;
+    }
+
+    public int getAckDelay() {
+        return ackDelay;
+    }
+
+    /*
+     * Sets the delayed ACK policy agreed on, and makes the retransmission timeout allow for the delay.
+     * @param every the most packets received in order acknowledged by one ACK.
+     * @param delay the most microseconds an ACK is held back.
+     */
+    public void setAckPolicy(int every, int delay) {
+        this.ackEvery = every;
+        this.ackDelay = delay;
+        rtt.setAckDelay(delay);
+    }
+
+    public String getChallenge() {
+        return challenge;
+    }
+
+    public void setChallenge(String challenge) {
+        this.challenge = challenge;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /*
+     * Returns the number of the client's next file request. Every request on the connection gets the next
+     * number, so the requests on each stream are numbered in the order they are made.
+     */
+    public int nextRequest() {
+        return requestNumber.getAndIncrement();
+    }
+
+    /*
+     * Records the number of a file request on a stream, and returns whether it is a new request rather
+     * than a repeat of the last one or a delayed copy of an earlier one.
+     */
+    public boolean newRequest(int stream, int number) {
+        Integer lastRequest = lastRequests.get(stream);
+        //numbers are compared by their difference, so they only wrap around after 2^31 requests
+        if (lastRequest != null && number - lastRequest <= 0) {
+            return false;
+        }
+        lastRequests.put(stream, number);
+        return true;
+    }
+
+    /*
+     * Returns whether a request is still the last one made on its stream.
+     */
+    public boolean isLatestRequest(int stream, int number) {
+        Integer lastRequest = lastRequests.get(stream);
+        return lastRequest != null && lastRequest == number;
+    }
+
+    public RxPRttEstimator getRtt() {
+        return rtt;
+    }
+
+    public RxPStats getStats() {
+        return stats;
+    }
+
+    /*
+     * Returns the metrics of the last or current transfer, or null if there has been none.
+     */
+    public RxPStats getTransferStats() {
+        return transferStats;
+    }
+
+    /*
+     * Starts keeping metrics for a new transfer, which also count towards the connection's.
+     */
+    public RxPStats startTransfer() {
+        RxPStats newStats = new RxPStats(stats);
+        transferStats = newStats;
+        if (mbeanName != null) {
+            register(mbeanName.replace("type=Connection", "type=Transfer"), newStats);
+        }
+        return newStats;
+    }
+
+    /*
+     * Registers the metrics with JMX, as RxP:type=Connection for the connection and RxP:type=Transfer
+     * for the last or current transfer.
+     * @param localPort the port of this side, which is part of the names.
+     */
+    public void registerMBeans(int localPort) {
+        mbeanName = "RxP:type=Connection,port=" + localPort + ",peer=" + ObjectName.quote(address.toString());
+        register(mbeanName, stats);
+    }
+
+    /*
+     * Removes the metrics from JMX, for when the connection is replaced.
+     */
+    public void unregisterMBeans() {
+        if (mbeanName != null) {
+            unregister(mbeanName);
+            unregister(mbeanName.replace("type=Connection", "type=Transfer"));
+        }
+    }
+
+    private static void register(String name, RxPStats mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+        } catch (JMException e) {
+            //the metrics are still shown by the stats command
+        }
+    }
+
+    private static void unregister(String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            //...
+        }
+    }
+
+    public RxPAPI.ServerSend getSender(int stream) {
+        return senders.get(stream);
+    }
+
+    public void setSender(int stream, RxPAPI.ServerSend sender) {
+        senders.put(stream, sender);
+    }
+
+    public Collection<RxPAPI.ServerSend> getSenders() {
+        return senders.values();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * CUBIC congestion control (RFC 8312). After a loss the window grows along a cubic curve that is
+ * flat around the window where the loss happened, and it never grows slower than Reno would.
+ */
+public class RxPCubicControl extends RxPCongestionControl {
+
+    //scaling constant of the cubic curve, in packets per second cubed
+    private static final double C = 0.4;
+    //multiplicative decrease factor
+    private static final double BETA = 0.7;
+
+    //window before the last reduction
+    private double wMax = 0;
+    //start of the current congestion avoidance epoch, 0 if none is in progress
+    private long epochStart = 0;
+    //time it takes the curve to get back to wMax, in seconds
+    private double k = 0;
+    private double origin = 0;
+    //window Reno would have, so CUBIC is never less aggressive than it
+    private double wEst = 0;
+
+    @Override
+    public void onAck(int acked, int srtt) {
+        if (cwnd < ssthresh) {
+            //slow start
+            cwnd += acked;
+            record();
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (epochStart == 0) {
+            epochStart = now;
+            if (cwnd < wMax) {
+                k = Math.cbrt((wMax - cwnd) / C);
+                origin = wMax;
+            } else {
+                k = 0;
+                origin = cwnd;
+            }
+            wEst = cwnd;
+        }
+
+        //where the curve will be one round trip from now
+        double t = (now - epochStart) / 1e9 + srtt / 1e6;
+        double target = origin + C * (t - k) * (t - k) * (t - k);
+
+        for (int i = 0; i < acked; i++) {
+            if (target > cwnd) {
+                cwnd += (target - cwnd) / cwnd;
+            } else {
+                cwnd += 0.01 / cwnd;
+            }
+            wEst += 3 * (1 - BETA) / (1 + BETA) / cwnd;
+        }
+        if (wEst > cwnd) {
+            cwnd = wEst;
+        }
+        record();
+    }
+
+    @Override
+    public void onLoss(int inFlight) {
+        epochStart = 0;
+        //release bandwidth faster if the window is still shrinking
+        if (cwnd < wMax) {
+            wMax = cwnd * (1 + BETA) / 2;
+        } else {
+            wMax = cwnd;
+        }
+        ssthresh = Math.max(cwnd * BETA, MIN_WINDOW);
+        cwnd = ssthresh;
+        record();
+    }
+
+    @Override
+    public void onTimeout(int inFlight) {
+        epochStart = 0;
+        wMax = cwnd;
+        super.onTimeout(inFlight);
+    }
+}
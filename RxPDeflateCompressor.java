@@ -0,0 +1,64 @@
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * Compression with the deflate format built into Java, at its fastest level. Each segment is ended with
+ * a sync flush, so everything compressed so far can be decompressed on its own.
+ */
+public class RxPDeflateCompressor extends RxPCompressor {
+
+    //created when first used, since a side only compresses or only decompresses
+    private Deflater deflater;
+    private Inflater inflater;
+
+    @Override
+    public int compress(byte[] src, int length, byte[] dst, int offset, int space) throws IOException {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+        }
+        deflater.setInput(src, 0, length);
+        int count = deflater.deflate(dst, offset, space, Deflater.SYNC_FLUSH);
+        //a full output buffer means part of the segment may still be waiting
+        if (count == space) {
+            throw new IOException("Compressed segment does not fit in a packet.");
+        }
+        return count;
+    }
+
+    @Override
+    public int decompress(byte[] src, int length, byte[] dst) throws IOException {
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        inflater.setInput(src, 0, length);
+        int count = 0;
+        try {
+            while (!inflater.needsInput()) {
+                if (count == dst.length) {
+                    throw new IOException("Decompressed segment is too large.");
+                }
+                int inflated = inflater.inflate(dst, count, dst.length - count);
+                //the stream ended or wants a dictionary, neither of which the sender does
+                if (inflated == 0 && !inflater.needsInput()) {
+                    throw new IOException("Invalid compressed data.");
+                }
+                count += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed data.");
+        }
+        return count;
+    }
+
+    @Override
+    public void end() {
+        if (deflater != null) {
+            deflater.end();
+        }
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Block signatures of a file, used to download only what changed when the client already has an older
+ * copy, as rsync does. The server splits its file into blocks and sends a weak rolling checksum and an
+ * MD5 hash of each. The client slides over its old copy a byte at a time, finds the blocks it already
+ * has anywhere in it, asks for the bytes of the others only, and puts the new file together.
+ * The signatures hold the size of the file, the block size and an MD5 hash of the whole file, followed
+ * by the two checksums of each block.
+ */
+public class RxPDelta {
+
+    private static final int MIN_BLOCK_SIZE = 1024;
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+    private static final int HASH_SIZE = 16;
+    private static final int HEADER_SIZE = 12 + HASH_SIZE;
+    private static final int ENTRY_SIZE = 4 + HASH_SIZE;
+    //bytes of the old copy read at once while looking for blocks
+    private static final int READ_SIZE = 1024 * 1024;
+
+    private final long fileSize;
+    private final int blockSize;
+    private final int blockCount;
+    private final byte[] fileHash;
+    private final int[] weak;
+    private final byte[] strong;
+
+    //blocks by weak checksum, as chains of block numbers
+    private final int[] buckets;
+    private final int[] nextInBucket;
+    //where each block was found in the old copy, or -1
+    private final long[] sources;
+
+    /*
+     * Reads the signatures sent by the server.
+     * @param signatures the signatures.
+     */
+    public RxPDelta(byte[] signatures) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(signatures);
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IOException("Invalid signatures.");
+        }
+        fileSize = buffer.getLong();
+        blockSize = buffer.getInt();
+        fileHash = new byte[HASH_SIZE];
+        buffer.get(fileHash);
+        if (fileSize < 0 || blockSize < 1 || (fileSize + blockSize - 1) / blockSize > Integer.MAX_VALUE
+                || buffer.remaining() != (fileSize + blockSize - 1) / blockSize * ENTRY_SIZE) {
+            throw new IOException("Invalid signatures.");
+        }
+        blockCount = (int) ((fileSize + blockSize - 1) / blockSize);
+        weak = new int[blockCount];
+        strong = new byte[blockCount * HASH_SIZE];
+        for (int i = 0; i < blockCount; i++) {
+            weak[i] = buffer.getInt();
+            buffer.get(strong, i * HASH_SIZE, HASH_SIZE);
+        }
+
+        //the last block is only looked for at the end of the old copy, unless it is a whole block
+        int fullBlocks = (int) (fileSize / blockSize);
+        buckets = new int[Integer.highestOneBit(Math.max(1, fullBlocks) * 2)];
+        Arrays.fill(buckets, -1);
+        nextInBucket = new int[fullBlocks];
+        for (int i = fullBlocks - 1; i >= 0; i--) {
+            int bucket = bucket(weak[i]);
+            nextInBucket[i] = buckets[bucket];
+            buckets[bucket] = i;
+        }
+        sources = new long[blockCount];
+        Arrays.fill(sources, -1);
+    }
+
+    /*
+     * Returns the signatures of a file, for the server to send.
+     * @param file the file.
+     */
+    public static byte[] signatures(File file) throws IOException {
+        long size = Files.size(file.toPath());
+        int blockSize = blockSize(size);
+        ByteBuffer signatures = newSignatures(size, blockSize);
+
+        MessageDigest fileDigest = md5();
+        MessageDigest blockDigest = md5();
+        //read whole blocks at a time
+        ByteBuffer chunk = ByteBuffer.allocate(Math.max(1, READ_SIZE / blockSize) * blockSize);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long pos = 0;
+            while (pos < size) {
+                chunk.clear();
+                chunk.limit((int) Math.min(chunk.capacity(), size - pos));
+                while (chunk.hasRemaining()) {
+                    if (channel.read(chunk, pos + chunk.position()) < 0) {
+                        throw new IOException("File is shorter than expected.");
+                    }
+                }
+                addBlocks(signatures, blockDigest, chunk.array(), chunk.limit(), blockSize);
+                fileDigest.update(chunk.array(), 0, chunk.limit());
+                pos += chunk.limit();
+            }
+        }
+        signatures.position(12);
+        signatures.put(fileDigest.digest());
+        return signatures.array();
+    }
+
+    /*
+     * Returns the signatures of a file already in memory.
+     * @param data the contents of the file.
+     */
+    public static byte[] signatures(byte[] data) throws IOException {
+        int blockSize = blockSize(data.length);
+        ByteBuffer signatures = newSignatures(data.length, blockSize);
+        addBlocks(signatures, md5(), data, data.length, blockSize);
+        signatures.position(12);
+        signatures.put(md5().digest(data));
+        return signatures.array();
+    }
+
+    /*
+     * Returns a buffer for the signatures of a file, with the size and block size written and its position
+     * after the hash of the whole file, where the blocks go.
+     */
+    private static ByteBuffer newSignatures(long size, int blockSize) throws IOException {
+        long blockCount = (size + blockSize - 1) / blockSize;
+        if (HEADER_SIZE + blockCount * ENTRY_SIZE > Integer.MAX_VALUE) {
+            throw new IOException("File is too large.");
+        }
+        ByteBuffer signatures = ByteBuffer.allocate((int) (HEADER_SIZE + blockCount * ENTRY_SIZE));
+        signatures.putLong(size);
+        signatures.putInt(blockSize);
+        signatures.position(HEADER_SIZE);
+        return signatures;
+    }
+
+    /*
+     * Adds the checksums of the blocks in some bytes that start at a block boundary.
+     */
+    private static void addBlocks(ByteBuffer signatures, MessageDigest blockDigest, byte[] bytes, int length, int blockSize) {
+        for (int off = 0; off < length; off += blockSize) {
+            int blockLength = Math.min(blockSize, length - off);
+            signatures.putInt(weakChecksum(bytes, off, blockLength));
+            blockDigest.update(bytes, off, blockLength);
+            signatures.put(blockDigest.digest());
+        }
+    }
+
+    /*
+     * Returns the block size for a file, about the square root of its size, as in rsync, so the
+     * signatures and the bytes sent again around each change stay small together.
+     */
+    private static int blockSize(long size) {
+        long root = ((long) Math.sqrt(size) + 7) & ~7L;
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(root, MAX_BLOCK_SIZE));
+    }
+
+    /*
+     * Returns the weak checksum of a block: two 16 bit sums of its bytes, the second weighted by
+     * position, which can be moved along by a byte without going over the block again.
+     */
+    private static int weakChecksum(byte[] bytes, int off, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            a += bytes[off + i] & 0xff;
+            b += (length - i) * (bytes[off + i] & 0xff);
+        }
+        return (a & 0xffff) | (b << 16);
+    }
+
+    private int bucket(int weakSum) {
+        return (weakSum ^ (weakSum >>> 15)) & (buckets.length - 1);
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Looks for the blocks of the new file anywhere in the old copy.
+     * @param basis the old copy.
+     */
+    public void match(Path basis) throws IOException {
+        MessageDigest digest = md5();
+        byte[] hash = null;
+        try (FileChannel channel = FileChannel.open(basis, StandardOpenOption.READ)) {
+            long basisSize = channel.size();
+            int fullBlocks = nextInBucket.length;
+            if (fullBlocks > 0 && basisSize >= blockSize) {
+                //a window of the old copy; buf[0] is at position bufPos, and the block looked at starts at start
+                byte[] buf = new byte[Math.max(READ_SIZE, 2 * blockSize)];
+                long bufPos = 0;
+                int start = 0;
+                int end = 0;
+                int a = 0;
+                int b = 0;
+                boolean fresh = true;
+                while (true) {
+                    //keep a whole block in the window, moving what is left to the front when it runs out
+                    if (end - start < blockSize) {
+                        System.arraycopy(buf, start, buf, 0, end - start);
+                        bufPos += start;
+                        end -= start;
+                        start = 0;
+                        ByteBuffer dst = ByteBuffer.wrap(buf, end, buf.length - end);
+                        while (dst.hasRemaining() && channel.read(dst, bufPos + dst.position()) > 0) {
+                            //read until the window is full or the old copy ends
+                        }
+                        end = dst.position();
+                        if (end - start < blockSize) {
+                            break;
+                        }
+                    }
+                    if (fresh) {
+                        int sum = weakChecksum(buf, start, blockSize);
+                        a = sum & 0xffff;
+                        b = sum >>> 16;
+                        fresh = false;
+                    }
+
+                    //a block that matches is skipped as a whole; otherwise move on by a byte
+                    int sum = (a & 0xffff) | (b << 16);
+                    boolean hashed = false;
+                    boolean found = false;
+                    for (int i = buckets[bucket(sum)]; i >= 0; i = nextInBucket[i]) {
+                        if (weak[i] != sum || sources[i] >= 0) {
+                            continue;
+                        }
+                        if (!hashed) {
+                            digest.update(buf, start, blockSize);
+                            hash = digest.digest();
+                            hashed = true;
+                        }
+                        if (equalsStrong(i, hash)) {
+                            //every block with the same contents can be taken from here
+                            sources[i] = bufPos + start;
+                            found = true;
+                        }
+                    }
+                    if (found) {
+                        start += blockSize;
+                        fresh = true;
+                    } else if (end - start > blockSize) {
+                        int out = buf[start] & 0xff;
+                        int in = buf[start + blockSize] & 0xff;
+                        a = a - out + in;
+                        b = b - blockSize * out + a;
+                        start++;
+                    } else {
+                        start++;
+                        fresh = true;
+                    }
+                }
+            }
+
+            //a short last block is only looked for at the end of the old copy
+            int last = blockCount - 1;
+            int lastLength = (int) (fileSize - (long) last * blockSize);
+            if (last >= 0 && sources[last] < 0 && lastLength > 0 && basisSize >= lastLength) {
+                ByteBuffer tail = ByteBuffer.allocate(lastLength);
+                while (tail.hasRemaining()) {
+                    if (channel.read(tail, basisSize - lastLength + tail.position()) < 0) {
+                        throw new IOException("File is shorter than expected.");
+                    }
+                }
+                if (weakChecksum(tail.array(), 0, lastLength) == weak[last] && equalsStrong(last, md5().digest(tail.array()))) {
+                    sources[last] = basisSize - lastLength;
+                }
+            }
+        }
+    }
+
+    private boolean equalsStrong(int block, byte[] hash) {
+        for (int i = 0; i < HASH_SIZE; i++) {
+            if (strong[block * HASH_SIZE + i] != hash[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Returns the parts of the new file that were not found in the old copy, as pairs of position and
+     * length, with neighbouring blocks joined.
+     */
+    public List<long[]> getMissing() {
+        List<long[]> missing = new ArrayList<>();
+        for (int i = 0; i < blockCount; i++) {
+            if (sources[i] >= 0) {
+                continue;
+            }
+            long offset = (long) i * blockSize;
+            long length = Math.min(blockSize, fileSize - offset);
+            long[] previous = missing.isEmpty() ? null : missing.get(missing.size() - 1);
+            if (previous != null && previous[0] + previous[1] == offset) {
+                previous[1] += length;
+            } else {
+                missing.add(new long[] {offset, length});
+            }
+        }
+        return missing;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /*
+     * Puts the new file together from the blocks found in the old copy and the missing bytes sent by the
+     * server, in order. Returns false if the result is not the file the signatures were made from, which
+     * happens when the file changed on the server in between.
+     * @param basis the old copy.
+     * @param literal the missing bytes, one part after another.
+     * @param target where to write the new file.
+     */
+    public boolean assemble(Path basis, Path literal, Path target) throws IOException {
+        MessageDigest digest = md5();
+        ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        try (FileChannel old = FileChannel.open(basis, StandardOpenOption.READ);
+             FileChannel changes = FileChannel.open(literal, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < blockCount; i++) {
+                buffer.clear();
+                buffer.limit((int) Math.min(blockSize, fileSize - (long) i * blockSize));
+                while (buffer.hasRemaining()) {
+                    int count = sources[i] >= 0 ? old.read(buffer, sources[i] + buffer.position()) : changes.read(buffer);
+                    if (count < 0) {
+                        return false;
+                    }
+                }
+                digest.update(buffer.array(), 0, buffer.limit());
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            if (changes.position() != changes.size()) {
+                return false;
+            }
+            out.force(false);
+        }
+        return Arrays.equals(digest.digest(), fileHash);
+    }
+}
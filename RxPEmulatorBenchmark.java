@@ -0,0 +1,113 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class RxPEmulatorBenchmark {
+
+    public static void main(String[] args) throws IOException {
+
+        //read key=value arguments over the defaults
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("size", "1024");
+        params.put("windows", "1,8,64");
+        params.put("seed", "1");
+        params.put("loss", "0");
+        params.put("dup", "0");
+        params.put("corrupt", "0");
+        params.put("reorder", "0");
+        params.put("delay", "0");
+        params.put("jitter", "0");
+        params.put("bandwidth", "0");
+        params.put("queue", "0");
+        params.put("cc", "reno");
+        params.put("mss", Integer.toString(RxPAPI.ETHERNET_MSS));
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            if (keyValue.length != 2 || !params.containsKey(keyValue[0])) {
+                System.out.println("Invalid argument " + arg + ".");
+                System.out.println("Parameters: [key=value ...] with keys and defaults " + params);
+                System.out.println("size is in KB, windows are separated by commas, delay and jitter are in ms,");
+                System.out.println("bandwidth is in KB/s and queue is in packets (0 for no limit), and loss, dup,");
+                System.out.println("corrupt and reorder are probabilities per packet.");
+                System.exit(0);
+            }
+            params.put(keyValue[0], keyValue[1]);
+        }
+        int sizeKB = Integer.parseInt(params.get("size"));
+
+        //the network between the client and server
+        RxPNetEmulator network = new RxPNetEmulator(Long.parseLong(params.get("seed")));
+        network.setLoss(Double.parseDouble(params.get("loss")));
+        network.setDuplication(Double.parseDouble(params.get("dup")));
+        network.setCorruption(Double.parseDouble(params.get("corrupt")));
+        network.setReordering(Double.parseDouble(params.get("reorder")));
+        network.setDelay(Double.parseDouble(params.get("delay")));
+        network.setJitter(Double.parseDouble(params.get("jitter")));
+        network.setBandwidth(Long.parseLong(params.get("bandwidth")) * 1024);
+        network.setQueueLimit(Integer.parseInt(params.get("queue")));
+
+        //create a file of random bytes for the server to send
+        String fileName = "rxpemu.dat";
+        File file = new File(fileName);
+        File downloaded = new File("rxpemu1.dat");
+        byte[] contents = new byte[sizeKB * 1024];
+        new Random(3251).nextBytes(contents);
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(contents);
+        fileOutputStream.close();
+
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        final RxPAPI serverRxP = new RxPAPI(network.bind(8081), loopback, 8080, false);
+        RxPAPI clientRxP = new RxPAPI(network.bind(8080), loopback, 8081, true);
+        serverRxP.setCongestionControl(params.get("cc"));
+        clientRxP.setMaxSegmentSize(params.get("mss"));
+
+        Thread server = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    serverRxP.listen();
+                } catch (IOException e) {
+                    System.out.println("Server error.");
+                }
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+        //download whole files as they are, not just what differs from the file next to the download, and not
+        //compressed, so the transfer itself is measured
+        clientRxP.setDelta("off");
+        clientRxP.setCompression("off");
+        clientRxP.createConnection();
+
+        StringBuilder results = new StringBuilder();
+        results.append(String.format("%8s %12s %12s %8s%n", "window", "time (ms)", "KB/s", "correct"));
+        for (String window : params.get("windows").split(",")) {
+            clientRxP.updateWindow(window);
+
+            long start = System.nanoTime();
+            clientRxP.recvFrom(fileName);
+            long elapsed = System.nanoTime() - start;
+
+            boolean correct = Arrays.equals(contents, Files.readAllBytes(downloaded.toPath()));
+            double ms = elapsed / 1e6;
+            results.append(String.format("%8s %12.1f %12.1f %8s%n", window, ms, sizeKB / (ms / 1000), correct));
+        }
+
+        System.out.println();
+        System.out.println("Goodput for a " + sizeKB + " KB file over the emulated network " + params + ":");
+        System.out.print(results);
+        System.out.println("Packets " + network.getStatistics() + ".");
+
+        file.delete();
+        downloaded.delete();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,147 @@
+import java.nio.ByteBuffer;
+
+/*
+ * Repairs lost packets on the client from the parity packets an RxPFecEncoder adds to a transfer. It keeps
+ * copies of the latest packets of the transfer, those accepted in order and those that arrived ahead of a
+ * gap, and when a parity packet finds exactly one packet of its group missing, it rebuilds that packet from
+ * the parity and the others. Packets kept ahead of the gap are handed back once the gap is filled.
+ */
+public class RxPFecDecoder {
+
+    //packets that arrive this far ahead of the next one expected are not kept
+    private static final int AHEAD = RxPFecEncoder.MAX_GROUP;
+    //twice as many slots as packets kept ahead, so the packets of a group accepted before a gap are not
+    //overwritten by those after it
+    private static final int SLOTS = 2 * AHEAD;
+    private static final int FLAGS = RxPCodec.FIN | RxPCodec.COMPRESSED;
+
+    //whole packets by sequence number modulo the number of slots, with the sequence number each slot holds
+    private final byte[][] packets = new byte[SLOTS][];
+    private final int[] lengths = new int[SLOTS];
+    private final int[] flags = new int[SLOTS];
+    private final int[] sequenceNumbers = new int[SLOTS];
+
+    //the latest parity packet, kept until its group is complete or can be repaired
+    private final byte[] parity;
+    private final ByteBuffer parityBuffer;
+    private int parityLength = 0;
+    private final RxPCodec parityCodec = new RxPCodec();
+
+    /*
+     * @param mss the largest payload of a packet.
+     */
+    public RxPFecDecoder(int mss) {
+        for (int i = 0; i < SLOTS; i++) {
+            packets[i] = new byte[RxPCodec.HEADER_SIZE + mss];
+            sequenceNumbers[i] = -1;
+        }
+        parity = new byte[RxPCodec.HEADER_SIZE + mss];
+        parityBuffer = ByteBuffer.wrap(parity);
+    }
+
+    /*
+     * Keeps a copy of a data packet, if it is not too far ahead.
+     * @param codec the codec pointing at the packet.
+     * @param next the sequence number of the next packet expected.
+     * @return whether it was kept.
+     */
+    public boolean store(RxPCodec codec, int next) {
+        int seq = codec.getSequenceNumber();
+        if (seq < next || seq >= next + AHEAD || codec.getLength() > packets[0].length) {
+            return false;
+        }
+        int slot = seq % SLOTS;
+        codec.getPacket(packets[slot], 0);
+        lengths[slot] = codec.getLength();
+        flags[slot] = codec.getFlags();
+        sequenceNumbers[slot] = seq;
+        return true;
+    }
+
+    /*
+     * Returns a kept or repaired packet, or null if it is not there.
+     * @param seq its sequence number.
+     */
+    public ByteBuffer get(int seq) {
+        int slot = seq % SLOTS;
+        if (sequenceNumbers[slot] != seq) {
+            return null;
+        }
+        return ByteBuffer.wrap(packets[slot], 0, lengths[slot]);
+    }
+
+    /*
+     * Takes a parity packet, or tries the last one again after a packet was kept, and repairs the missing
+     * packet of its group if there is only one.
+     * @param codec the codec pointing at a new parity packet, or null to try the last one again.
+     * @param next the sequence number of the next packet expected.
+     * @return whether a packet was repaired.
+     */
+    public boolean repair(RxPCodec codec, int next) {
+        if (codec != null) {
+            if (codec.getLength() > parity.length) {
+                return false;
+            }
+            codec.getPacket(parity, 0);
+            parityLength = codec.getLength();
+        }
+        if (parityLength == 0) {
+            return false;
+        }
+        parityCodec.wrap(parityBuffer, 0, parityLength);
+        int first = parityCodec.getSequenceNumber();
+        int count = parityBuffer.getInt(RxPCodec.HEADER_SIZE);
+        int longest = parityLength - RxPCodec.HEADER_SIZE - RxPFecEncoder.OVERHEAD;
+        if (longest < 0 || count < 1 || count > RxPFecEncoder.MAX_GROUP || first + count <= next) {
+            //the group has been received already, or the packet is not valid
+            parityLength = 0;
+            return false;
+        }
+        int missing = -1;
+        for (int seq = first; seq < first + count; seq++) {
+            if (sequenceNumbers[seq % SLOTS] != seq) {
+                if (missing >= 0 || seq < next) {
+                    //more than one is missing, so wait for more to arrive
+                    return false;
+                }
+                missing = seq;
+            }
+        }
+        if (missing < 0) {
+            parityLength = 0;
+            return false;
+        }
+
+        //XOR the others out of the parity to leave the missing packet
+        int length = parityBuffer.getInt(RxPCodec.HEADER_SIZE + 4);
+        int repairedFlags = parityBuffer.getInt(RxPCodec.HEADER_SIZE + 8);
+        int slot = missing % SLOTS;
+        byte[] repaired = packets[slot];
+        System.arraycopy(parity, RxPCodec.HEADER_SIZE + RxPFecEncoder.OVERHEAD, repaired, RxPCodec.HEADER_SIZE, longest);
+        for (int seq = first; seq < first + count; seq++) {
+            if (seq != missing) {
+                int other = seq % SLOTS;
+                int otherLength = lengths[other] - RxPCodec.HEADER_SIZE;
+                byte[] packet = packets[other];
+                for (int i = 0; i < Math.min(otherLength, longest); i++) {
+                    repaired[RxPCodec.HEADER_SIZE + i] ^= packet[RxPCodec.HEADER_SIZE + i];
+                }
+                length ^= otherLength;
+                repairedFlags ^= flags[other] & FLAGS;
+            }
+        }
+        parityLength = 0;
+        if (length < 0 || length > longest) {
+            return false;
+        }
+
+        //give it the header it was sent with, apart from the checksum, which has been checked on the parity
+        ByteBuffer header = ByteBuffer.wrap(repaired);
+        RxPCodec.encodeHeader(header, parityCodec.getSourcePort(), parityCodec.getDestinationPort(), missing,
+                parityCodec.getAckNumber(), 0, (repairedFlags & FLAGS) | parityCodec.getStream(), parityCodec.getTimestamp());
+        lengths[slot] = RxPCodec.HEADER_SIZE + length;
+        flags[slot] = (repairedFlags & FLAGS) | parityCodec.getStream();
+        sequenceNumbers[slot] = missing;
+        return true;
+    }
+}
@@ -0,0 +1,146 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ * Builds the parity packets a sender adds after each group of data packets, so the client can repair a
+ * lost packet of the group without waiting for it to be sent again. A parity packet holds the XOR of the
+ * payloads of its group, padded with zeros to the longest, after the number of packets in the group and
+ * the XOR of their lengths and flags. Its sequence number is that of the first packet of the group.
+ * The group size follows the loss rate the sender sees, so about one packet in four groups is lost: groups
+ * are small on a lossy link and large, with little overhead, on a clean one.
+ */
+public class RxPFecEncoder {
+
+    //bytes in the payload of a parity packet before the XOR of the payloads
+    public static final int OVERHEAD = 12;
+    //fewest and most data packets covered by one parity packet
+    public static final int MIN_GROUP = 4;
+    public static final int MAX_GROUP = 32;
+    //groups whose first packets are remembered, for finding the group of a packet
+    private static final int GROUPS_KEPT = 64;
+    //lost packets per group the group size aims for
+    private static final double TARGET_LOSSES = 0.25;
+    //data packets per sample of the loss rate, and the weight of each sample
+    private static final int SAMPLE_PACKETS = 64;
+    private static final double GAIN = 0.25;
+    //flags a repaired packet must get back
+    private static final int FLAGS = RxPCodec.FIN | RxPCodec.COMPRESSED;
+
+    //XOR of the payloads of the group so far, and a payload copied out of its packet
+    private final byte[] parity;
+    private final byte[] payload;
+
+    private int first;
+    private int count = 0;
+    //sequence number after the last data packet added
+    private int next = 0;
+    //first sequence number of each of the last groups, and how many groups have been started
+    private final int[] starts = new int[GROUPS_KEPT];
+    private int groups = 0;
+    private int longest;
+    private int lengths;
+    private int flags;
+    private int groupSize = MAX_GROUP;
+
+    //losses seen per data packet sent, averaged over samples
+    private double lossRate = 0;
+    private int sampleSent = 0;
+    private int sampleLosses = 0;
+
+    /*
+     * @param payloadSize the largest payload of a data packet, which must leave room for the overhead in a packet.
+     */
+    public RxPFecEncoder(int payloadSize) {
+        parity = new byte[payloadSize];
+        payload = new byte[payloadSize];
+    }
+
+    /*
+     * Adds a data packet that is sent for the first time to the current group.
+     * @param codec the codec pointing at the packet.
+     * @param last whether it is the final packet of the transfer, which ends the group early.
+     * @return whether the group is complete, so its parity packet should be sent.
+     */
+    public boolean add(RxPCodec codec, boolean last) {
+        if (count == 0) {
+            first = codec.getSequenceNumber();
+            starts[groups % GROUPS_KEPT] = first;
+            groups++;
+            Arrays.fill(parity, 0, longest, (byte) 0);
+            longest = 0;
+            lengths = 0;
+            flags = 0;
+        }
+        int length = codec.getDataLength();
+        codec.getData(payload, 0);
+        for (int i = 0; i < length; i++) {
+            parity[i] ^= payload[i];
+        }
+        longest = Math.max(longest, length);
+        lengths ^= length;
+        flags ^= codec.getFlags() & FLAGS;
+        count++;
+        next = codec.getSequenceNumber() + 1;
+        sampleSent++;
+        return count >= groupSize || last;
+    }
+
+    /*
+     * Builds the parity packet of the current group, and starts the next group.
+     * @param dst the buffer to build the packet in; its position and limit surround the packet afterwards.
+     * @param sourcePort the port of the sender.
+     * @param destinationPort the port of the client.
+     * @param request the tag of the transfer, as in its data packets.
+     * @param stream the stream of the transfer.
+     */
+    public void encodeParity(ByteBuffer dst, int sourcePort, int destinationPort, int request, int stream) {
+        dst.clear();
+        RxPCodec.encodeHeader(dst, sourcePort, destinationPort, first, request, 0, RxPCodec.PARITY | stream,
+                RxPRttEstimator.timestamp());
+        dst.putInt(count);
+        dst.putInt(lengths);
+        dst.putInt(flags);
+        dst.put(parity, 0, longest);
+        dst.flip();
+        count = 0;
+        adapt();
+    }
+
+    /*
+     * Counts a loss the sender noticed, from duplicate ACKs or a timeout.
+     */
+    public void onLoss() {
+        sampleLosses++;
+    }
+
+    /*
+     * Returns how many data packets of the group holding a packet come after it, counting those of the group
+     * being built that are not sent yet, or 0 if the group is too old to be remembered.
+     * @param seq the sequence number of the packet, which has been added.
+     */
+    public int packetsAfter(int seq) {
+        for (int i = groups - 1; i >= Math.max(0, groups - GROUPS_KEPT); i--) {
+            int start = starts[i % GROUPS_KEPT];
+            if (seq >= start) {
+                int end;
+                if (i < groups - 1) {
+                    end = starts[(i + 1) % GROUPS_KEPT];
+                } else {
+                    end = count > 0 ? start + groupSize : next;
+                }
+                return Math.max(0, end - 1 - seq);
+            }
+        }
+        return 0;
+    }
+
+    private void adapt() {
+        if (sampleSent < SAMPLE_PACKETS) {
+            return;
+        }
+        lossRate += GAIN * ((double) sampleLosses / sampleSent - lossRate);
+        sampleSent = 0;
+        sampleLosses = 0;
+        groupSize = lossRate > 0 ? (int) Math.max(MIN_GROUP, Math.min(MAX_GROUP, TARGET_LOSSES / lossRate)) : MAX_GROUP;
+    }
+}
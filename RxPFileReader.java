@@ -0,0 +1,359 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Reads a file one segment at a time for the server to send. A background thread reads chunks of the
+ * file ahead of the sender, so disk reads overlap with sending, and at most a few chunks are held in
+ * memory no matter how large the file is.
+ * A reader can also read a header followed by several files as if they were one, so small files are
+ * packed into full segments one after another.
+ * A file the server sends often is read from an RxPSegmentCache instead, without a background thread,
+ * and the checksums of its payloads are taken from there too.
+ */
+public class RxPFileReader {
+
+    //bytes read from the file at once
+    private static final int CHUNK_SIZE = 256 * 1024;
+    //chunks that may be read ahead of the sender
+    private static final int READ_AHEAD = 8;
+    //milliseconds the sender waits for a chunk before checking whether reading failed
+    private static final int FAILURE_CHECK = 100;
+
+    //what is read one after another: the header and the files, with their sizes when the reader was opened
+    private final List<Part> parts = new ArrayList<>();
+    private final long size;
+    private final int segmentSize;
+
+    private final BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(READ_AHEAD);
+    private final Thread readAhead;
+    private volatile IOException failure;
+    //called each time a chunk has been read, so a sender that does not block can be woken up
+    private volatile Runnable readListener;
+
+    //chunk the next segment is taken from
+    private ByteBuffer current;
+
+    //the cached file being read instead, and the segment taken last
+    private final RxPSegmentCache.Entry cached;
+    private int cachedIndex = -1;
+    private int[] cachedChecksums;
+    private int cachedChecksumType = -1;
+    private int[] fullSegmentOperator;
+
+    /*
+     * Opens the file and starts reading it in the background.
+     * @param file the file to read.
+     * @param segmentSize the number of bytes in each segment.
+     */
+    public RxPFileReader(File file, int segmentSize) throws IOException {
+        this(file, segmentSize, null);
+    }
+
+    /*
+     * Opens the file and starts reading it in the background, keeping its contents in a cache once they
+     * have all been read if it is small enough.
+     * @param file the file to read.
+     * @param segmentSize the number of bytes in each segment.
+     * @param cache the cache to add the file to, or null.
+     */
+    public RxPFileReader(File file, int segmentSize, RxPSegmentCache cache) throws IOException {
+        this(null, Collections.singletonList(file), new long[] {0}, new long[] {Files.size(file.toPath())}, segmentSize,
+                cache);
+    }
+
+    /*
+     * Reads a file from the cache.
+     * @param cached the cached file.
+     * @param segmentSize the number of bytes in each segment.
+     */
+    public RxPFileReader(RxPSegmentCache.Entry cached, int segmentSize) {
+        this.cached = cached;
+        this.size = cached.getData().length;
+        this.segmentSize = segmentSize;
+        readAhead = null;
+    }
+
+    /*
+     * Opens part of a file and starts reading it in the background. A range past the end of the file
+     * is cut short.
+     * @param file the file to read.
+     * @param offset the position of the first byte to read.
+     * @param length the number of bytes to read, or -1 for the rest of the file.
+     * @param segmentSize the number of bytes in each segment.
+     */
+    public static RxPFileReader range(File file, long offset, long length, int segmentSize) throws IOException {
+        long size = Files.size(file.toPath());
+        offset = Math.max(0, Math.min(offset, size));
+        length = length < 0 ? size - offset : Math.min(length, size - offset);
+        return new RxPFileReader(null, Collections.singletonList(file), new long[] {offset}, new long[] {length}, segmentSize);
+    }
+
+    /*
+     * Opens one stripe of a file and starts reading it in the background: every stripes-th block of the
+     * file, starting with the block of the stripe's index, read one after another.
+     * @param file the file to read.
+     * @param stripe the index of the stripe, from 0.
+     * @param stripes the number of stripes the file is split into.
+     * @param blockSize the number of bytes in each block.
+     * @param segmentSize the number of bytes in each segment.
+     */
+    public static RxPFileReader stripe(File file, int stripe, int stripes, long blockSize, int segmentSize) throws IOException {
+        long size = Files.size(file.toPath());
+        long blocks = (size + blockSize - 1) / blockSize;
+        int count = blocks > stripe ? (int) Math.min((blocks - stripe - 1) / stripes + 1, Integer.MAX_VALUE) : 0;
+        List<File> files = new ArrayList<>(count);
+        long[] offsets = new long[count];
+        long[] lengths = new long[count];
+        for (int i = 0; i < count; i++) {
+            files.add(file);
+            offsets[i] = ((long) i * stripes + stripe) * blockSize;
+            lengths[i] = Math.min(blockSize, size - offsets[i]);
+        }
+        return new RxPFileReader(null, files, offsets, lengths, segmentSize);
+    }
+
+    /*
+     * Opens a header followed by several files, read as one, and starts reading them in the background.
+     * Each file is opened when it is reached.
+     * @param header bytes read before the files, or null.
+     * @param files the files to read.
+     * @param offsets where to start reading each file.
+     * @param lengths how many bytes to read from each file.
+     * @param segmentSize the number of bytes in each segment.
+     */
+    public RxPFileReader(byte[] header, List<File> files, long[] offsets, long[] lengths, int segmentSize) {
+        this(header, files, offsets, lengths, segmentSize, null);
+    }
+
+    private RxPFileReader(byte[] header, List<File> files, long[] offsets, long[] lengths, int segmentSize,
+                          final RxPSegmentCache cache) {
+        cached = null;
+        long total = 0;
+        if (header != null) {
+            parts.add(new Part(header, null, 0, header.length));
+            total += header.length;
+        }
+        for (int i = 0; i < files.size(); i++) {
+            parts.add(new Part(null, files.get(i), offsets[i], lengths[i]));
+            total += lengths[i];
+        }
+        this.size = total;
+        this.segmentSize = segmentSize;
+
+        //chunks hold whole segments, so a segment never spans two chunks
+        final int chunkSize = Math.max(1, CHUNK_SIZE / segmentSize) * segmentSize;
+        //a whole file small enough to cache is also copied to memory as it is read
+        final File cacheFile = files.size() == 1 ? files.get(0) : null;
+        final boolean caching = cache != null && header == null && cacheFile != null && offsets[0] == 0
+                && size <= Math.min(cache.getMaxFileSize(), Integer.MAX_VALUE - 8);
+
+        readAhead = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FileChannel channel = null;
+                int partIndex = -1;
+                Part part = null;
+                long partPos = 0;
+                try {
+                    FileTime modified = null;
+                    byte[] contents = null;
+                    if (caching) {
+                        modified = Files.getLastModifiedTime(cacheFile.toPath());
+                        contents = new byte[(int) size];
+                    }
+                    for (long pos = 0; pos < size; pos += chunkSize) {
+                        ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(chunkSize, size - pos));
+                        while (chunk.hasRemaining()) {
+                            //move on to the next part once this one has been read, so parts share chunks
+                            while (part == null || partPos == part.length) {
+                                if (channel != null) {
+                                    channel.close();
+                                    channel = null;
+                                }
+                                part = parts.get(++partIndex);
+                                partPos = 0;
+                                if (part.file != null && part.length > 0) {
+                                    channel = FileChannel.open(part.file.toPath(), StandardOpenOption.READ);
+                                }
+                            }
+                            int count = (int) Math.min(chunk.remaining(), part.length - partPos);
+                            if (part.bytes != null) {
+                                chunk.put(part.bytes, (int) partPos, count);
+                            } else {
+                                //a single read may return fewer bytes than asked for
+                                int limit = chunk.limit();
+                                chunk.limit(chunk.position() + count);
+                                count = channel.read(chunk, part.offset + partPos);
+                                chunk.limit(limit);
+                                if (count < 0) {
+                                    throw new IOException("File is shorter than expected.");
+                                }
+                            }
+                            partPos += count;
+                        }
+                        chunk.flip();
+                        if (contents != null) {
+                            System.arraycopy(chunk.array(), 0, contents, (int) pos, chunk.limit());
+                        }
+                        chunks.put(chunk);
+                        chunkRead();
+                    }
+                    //only cache what was read if the file was not changed meanwhile
+                    if (contents != null && modified.equals(Files.getLastModifiedTime(cacheFile.toPath()))
+                            && size == Files.size(cacheFile.toPath())) {
+                        cache.put(cacheFile, modified, contents);
+                    }
+                } catch (IOException e) {
+                    //the chunks read so far are dropped, so there is always room to mark the failure
+                    failure = e;
+                    chunks.clear();
+                    chunks.offer(ByteBuffer.allocate(0));
+                    chunkRead();
+                } catch (InterruptedException e) {
+                    //reader was closed
+                } finally {
+                    if (channel != null) {
+                        try {
+                            channel.close();
+                        } catch (IOException e) {
+                            //...
+                        }
+                    }
+                }
+            }
+        });
+        readAhead.setDaemon(true);
+        readAhead.start();
+    }
+
+    /*
+     * Returns the number of segments in the file. An empty file is sent as a single empty segment.
+     */
+    public long getSegmentCount() {
+        return Math.max(1, (size + segmentSize - 1) / segmentSize);
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /*
+     * Sets what to call each time a chunk has been read in the background.
+     */
+    public void setReadListener(Runnable readListener) {
+        this.readListener = readListener;
+    }
+
+    private void chunkRead() {
+        Runnable listener = readListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /*
+     * Returns whether nextSegment() can return without waiting for the disk.
+     */
+    public boolean isSegmentReady() {
+        return size == 0 || cached != null || (current != null && current.hasRemaining()) || !chunks.isEmpty();
+    }
+
+    /*
+     * Copies the next segment of the file into the buffer at its position, waiting for it to be read
+     * from disk if necessary.
+     */
+    public void nextSegment(ByteBuffer dst) throws IOException {
+        if (cached != null) {
+            cachedIndex++;
+            long offset = (long) cachedIndex * segmentSize;
+            dst.put(cached.getData(), (int) offset, (int) Math.min(segmentSize, size - offset));
+            return;
+        }
+        if (size == 0) {
+            return;
+        }
+        if (current == null || !current.hasRemaining()) {
+            current = null;
+            try {
+                //a failed read is noticed even if nothing more is queued
+                while (current == null && failure == null) {
+                    current = chunks.poll(FAILURE_CHECK, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while reading file.");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        int limit = current.limit();
+        current.limit(current.position() + Math.min(segmentSize, current.remaining()));
+        dst.put(current);
+        current.limit(limit);
+    }
+
+    /*
+     * Returns whether the file is read from the cache, so packetChecksum() can be used.
+     */
+    public boolean isCached() {
+        return cached != null;
+    }
+
+    /*
+     * Returns the checksum of the packet holding the segment taken last, from the checksum of its header
+     * and the cached checksum of the segment.
+     * @param type the checksum type.
+     * @param headerChecksum the checksum of the header on its own, with the checksum field as zero.
+     */
+    public int packetChecksum(int type, int headerChecksum) {
+        if (type != cachedChecksumType) {
+            cachedChecksums = cached.getChecksums(type, segmentSize);
+            fullSegmentOperator = RxPSegmentCache.operator(type, segmentSize);
+            cachedChecksumType = type;
+        }
+        int length = (int) Math.min(segmentSize, size - (long) cachedIndex * segmentSize);
+        if (length == 0) {
+            return headerChecksum;
+        }
+        int[] operator = length == segmentSize ? fullSegmentOperator : RxPSegmentCache.operator(type, length);
+        return RxPChecksum.combine(operator, headerChecksum, cachedChecksums[cachedIndex]);
+    }
+
+    /*
+     * Stops reading ahead and closes the file.
+     */
+    public void close() throws IOException {
+        if (readAhead != null) {
+            readAhead.interrupt();
+        }
+    }
+
+    /*
+     * The header or one of the files.
+     */
+    private static class Part {
+
+        private final byte[] bytes;
+        private final File file;
+        private final long offset;
+        private final long length;
+
+        private Part(byte[] bytes, File file, long offset, long length) {
+            this.bytes = bytes;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
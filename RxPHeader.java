@@ -1,9 +1,4 @@
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.IntBuffer;
-import java.util.Arrays;
 
 public class RxPHeader {
     private int sourcePort;
@@ -16,6 +11,9 @@ public class RxPHeader {
     private boolean SYN;
     private boolean FIN;
 
+    //stream of a multiplexed connection the packet belongs to
+    private int stream;
+
     private int timestamp;
 
     public RxPHeader(int sourcePort, int destinationPort, int sequenceNumber) {
@@ -81,6 +79,14 @@ public class RxPHeader {
         this.FIN = FIN;
     }
 
+    public int getStream() {
+        return stream;
+    }
+
+    public void setStream(int stream) {
+        this.stream = stream & RxPCodec.STREAM;
+    }
+
     public int getChecksum() {
         return checksum;
     }
@@ -92,62 +98,45 @@ public class RxPHeader {
 
     public byte[] getHeaderByteArray() {
         //Initializes the byte array to return
-        byte[] headerByteArray;
-
-        //Allocate space to store header bytes
-        ByteBuffer byteBuffer = ByteBuffer.allocate(Integer.BYTES * 7);
-        //byteBuffer.order(ByteOrder.BIG_ENDIAN); //not sure if we need this
-
-        //Place header info in buffer
-        byteBuffer.putInt(sourcePort);
-        byteBuffer.putInt(destinationPort);
-        byteBuffer.putInt(sequenceNumber);
-        byteBuffer.putInt(ackNumber);
-        byteBuffer.putInt(checksum);
-
-        //Converts the flags to ints with bitshifting
-        int ackByte = (ACK ? 1 : 0) << 31;
-        int synByte = (SYN ? 1 : 0) << 30;
-        int finByte = (FIN ? 1 : 0) << 29;
-
-        //combine flags
-        int flagsCombined = ackByte | synByte | finByte;
-
-        //Place flags byte array in buffer
-        byteBuffer.putInt(flagsCombined);
+        byte[] headerByteArray = new byte[RxPCodec.HEADER_SIZE];
 
-        //Place timestamp in buffer
-        byteBuffer.putInt(timestamp);
-        //Convert the byte buffer into a byte array.
-        headerByteArray = byteBuffer.array();
+        //Place header info in the array
+        writeTo(ByteBuffer.wrap(headerByteArray));
 
-        //Return the completed byte buffer.
+        //Return the completed byte array.
         return headerByteArray;
     }
 
+    /*
+     * Writes the header at the buffer's position and advances the position past it.
+     */
+    public void writeTo(ByteBuffer byteBuffer) {
+        RxPCodec.encodeHeader(byteBuffer, sourcePort, destinationPort, sequenceNumber, ackNumber, checksum,
+                RxPCodec.flags(ACK, SYN, FIN) | stream, timestamp);
+    }
+
     /*
      * Constructor for an RxP Header from a byte array.
      */
     public RxPHeader(byte[] headerByteArray) {
-        ByteBuffer byteBuffer = ByteBuffer.wrap(headerByteArray);
-        IntBuffer intBuffer = byteBuffer.asIntBuffer();
-        this.sourcePort = intBuffer.get(0);
-        this.destinationPort = intBuffer.get(1);
-        this.sequenceNumber = intBuffer.get(2);
-        this.ackNumber = intBuffer.get(3);
-        this.checksum = intBuffer.get(4);
-        int flagsCombined = intBuffer.get(5);
-        this.timestamp = intBuffer.get(6);
-
-
-        int ackInt = (flagsCombined >>> 31) & 0x1;
-        int synInt = (flagsCombined >>> 30) & 0x1;
-        int finInt = (flagsCombined >>> 29) & 0x1;
-
-        this.ACK = (ackInt == 1);
-        this.SYN = (synInt == 1);
-        this.FIN = (finInt == 1);
+        this(new RxPCodec().wrap(ByteBuffer.wrap(headerByteArray)));
+    }
 
+    /*
+     * Constructor for an RxP Header from a packet wrapped by a codec.
+     */
+    public RxPHeader(RxPCodec codec) {
+        this.sourcePort = codec.getSourcePort();
+        this.destinationPort = codec.getDestinationPort();
+        this.sequenceNumber = codec.getSequenceNumber();
+        this.ackNumber = codec.getAckNumber();
+        this.checksum = codec.getChecksum();
+        this.timestamp = codec.getTimestamp();
+
+        this.ACK = codec.isACK();
+        this.SYN = codec.isSYN();
+        this.FIN = codec.isFIN();
+        this.stream = codec.getStream();
     }
 
 
@@ -0,0 +1,347 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * An emulated network inside the JVM, in place of NetEmu. Transports bound to it send datagrams to each
+ * other by port, and each direction between two ports is a link that can drop, duplicate, corrupt and
+ * reorder packets, delay them by a fixed time plus jitter, and limit them to a bandwidth with a queue of
+ * limited length. Every link draws from its own random generator seeded from the network's seed, so
+ * what happens to the n-th packet sent over a link depends only on the seed.
+ */
+public class RxPNetEmulator {
+
+    //address every emulated transport appears to be at
+    private final InetAddress address = InetAddress.getLoopbackAddress();
+    private final long seed;
+
+    //probabilities of each impairment, per packet
+    private volatile double loss;
+    private volatile double duplication;
+    private volatile double corruption;
+    private volatile double reordering;
+
+    //delays in nanoseconds; reordered packets are held back by the extra reorder delay
+    private volatile long delay;
+    private volatile long jitter;
+    private volatile long reorderDelay = 10000000;
+
+    //bytes per second each link carries, and packets that may wait to be sent on it; 0 for no limit
+    private volatile long bandwidth;
+    private volatile int queueLimit;
+
+    private final Map<Integer, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final Map<Long, Link> links = new HashMap<>();
+
+    //what has happened to the packets sent so far
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong queueDrops = new AtomicLong();
+    private final AtomicLong duplicated = new AtomicLong();
+    private final AtomicLong corrupted = new AtomicLong();
+    private final AtomicLong reordered = new AtomicLong();
+
+    public RxPNetEmulator(long seed) {
+        this.seed = seed;
+    }
+
+    //first port tried for a transport bound to any free port
+    private static final int FIRST_FREE_PORT = 49152;
+
+    /*
+     * Returns a transport bound to the given port of the emulated network.
+     */
+    public RxPTransport bind(int port) throws IOException {
+        Endpoint endpoint = new Endpoint(port);
+        if (endpoints.putIfAbsent(port, endpoint) != null) {
+            throw new IOException("Port " + port + " is already in use.");
+        }
+        return endpoint;
+    }
+
+    /*
+     * Returns a transport bound to a free port of the emulated network.
+     */
+    public RxPTransport bindFree() throws IOException {
+        for (int port = FIRST_FREE_PORT; port <= 65535; port++) {
+            Endpoint endpoint = new Endpoint(port);
+            if (endpoints.putIfAbsent(port, endpoint) == null) {
+                return endpoint;
+            }
+        }
+        throw new IOException("No port is free.");
+    }
+
+    public void setLoss(double loss) {
+        this.loss = loss;
+    }
+
+    public void setDuplication(double duplication) {
+        this.duplication = duplication;
+    }
+
+    public void setCorruption(double corruption) {
+        this.corruption = corruption;
+    }
+
+    public void setReordering(double reordering) {
+        this.reordering = reordering;
+    }
+
+    /*
+     * Sets the fixed delay of every packet, in milliseconds.
+     */
+    public void setDelay(double delay) {
+        this.delay = (long) (delay * 1e6);
+    }
+
+    /*
+     * Sets the largest random delay added to the fixed delay, in milliseconds.
+     */
+    public void setJitter(double jitter) {
+        this.jitter = (long) (jitter * 1e6);
+    }
+
+    /*
+     * Sets how much longer reordered packets are held back, in milliseconds.
+     */
+    public void setReorderDelay(double reorderDelay) {
+        this.reorderDelay = (long) (reorderDelay * 1e6);
+    }
+
+    /*
+     * Sets the bytes per second each link carries, or 0 for no limit.
+     */
+    public void setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    /*
+     * Sets how many packets may wait to be sent on a link before more are dropped, or 0 for no limit.
+     */
+    public void setQueueLimit(int queueLimit) {
+        this.queueLimit = queueLimit;
+    }
+
+    /*
+     * Returns what has happened to the packets sent so far.
+     */
+    public String getStatistics() {
+        return "sent " + sent + ", lost " + lost + ", queue drops " + queueDrops + ", duplicated " + duplicated
+                + ", corrupted " + corrupted + ", reordered " + reordered;
+    }
+
+    private Link link(int from, int to) {
+        synchronized (links) {
+            long key = ((long) from << 32) | (to & 0xffffffffL);
+            Link link = links.get(key);
+            if (link == null) {
+                link = new Link(new Random(seed * 1000003 + key));
+                links.put(key, link);
+            }
+            return link;
+        }
+    }
+
+    /**
+     * Sends a packet over the link between two ports, deciding what happens to it on the way.
+     * @param from the port the packet is sent from.
+     * @param packet the packet, addressed to the port it is sent to.
+     */
+    private void send(int from, DatagramPacket packet) {
+        sent.incrementAndGet();
+        Endpoint to = endpoints.get(packet.getPort());
+        Link link = link(from, packet.getPort());
+        synchronized (link) {
+            //draw the same random numbers for every packet, so each packet's fate only depends on the seed
+            Random random = link.random;
+            boolean lose = random.nextDouble() < loss;
+            boolean duplicate = random.nextDouble() < duplication;
+            boolean corrupt = random.nextDouble() < corruption;
+            boolean reorder = random.nextDouble() < reordering;
+            long extraDelay = (long) (random.nextDouble() * jitter);
+            int corruptBit = random.nextInt(Integer.MAX_VALUE);
+
+            if (lose) {
+                lost.incrementAndGet();
+                return;
+            }
+
+            //packets wait for the ones before them to be sent at the link's bandwidth
+            long now = System.nanoTime();
+            while (!link.departures.isEmpty() && link.departures.peekFirst() <= now) {
+                link.departures.pollFirst();
+            }
+            if (queueLimit > 0 && link.departures.size() >= queueLimit) {
+                queueDrops.incrementAndGet();
+                return;
+            }
+            long departure = now;
+            if (bandwidth > 0) {
+                departure = Math.max(now, link.busyUntil) + packet.getLength() * 1000000000L / bandwidth;
+                link.busyUntil = departure;
+                link.departures.addLast(departure);
+            }
+
+            //packets arrive in the order they were sent unless they are reordered
+            long arrival = departure + delay + extraDelay;
+            if (reorder) {
+                reordered.incrementAndGet();
+                arrival += reorderDelay;
+            } else {
+                arrival = Math.max(arrival, link.lastArrival);
+                link.lastArrival = arrival;
+            }
+
+            if (to == null) {
+                return;
+            }
+            byte[] data = new byte[packet.getLength()];
+            System.arraycopy(packet.getData(), packet.getOffset(), data, 0, data.length);
+            if (corrupt && data.length > 0) {
+                corrupted.incrementAndGet();
+                data[(corruptBit >>> 3) % data.length] ^= (byte) (1 << (corruptBit & 7));
+            }
+            to.deliver(arrival, from, data);
+            if (duplicate) {
+                duplicated.incrementAndGet();
+                to.deliver(arrival, from, data.clone());
+            }
+        }
+    }
+
+    /*
+     * One direction between two ports.
+     */
+    private static class Link {
+
+        private final Random random;
+        //when the packets waiting to be sent will have left, and when the link is free again
+        private final ArrayDeque<Long> departures = new ArrayDeque<>();
+        private long busyUntil;
+        //arrival of the last packet that was not reordered
+        private long lastArrival;
+
+        private Link(Random random) {
+            this.random = random;
+        }
+    }
+
+    /*
+     * A packet on its way to a transport.
+     */
+    private static class Delivery implements Comparable<Delivery> {
+
+        private final long arrival;
+        private final long order;
+        private final int from;
+        private final byte[] data;
+
+        private Delivery(long arrival, long order, int from, byte[] data) {
+            this.arrival = arrival;
+            this.order = order;
+            this.from = from;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo(Delivery other) {
+            if (arrival != other.arrival) {
+                return Long.compare(arrival, other.arrival);
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+
+    /*
+     * A transport bound to one port of the emulated network.
+     */
+    private class Endpoint implements RxPTransport {
+
+        private final int port;
+        //packets on their way here, by arrival time
+        private final PriorityQueue<Delivery> deliveries = new PriorityQueue<>();
+        private long deliveryCount = 0;
+        private int timeout = 0;
+
+        private Endpoint(int port) {
+            this.port = port;
+        }
+
+        private synchronized void deliver(long arrival, int from, byte[] data) {
+            deliveries.add(new Delivery(arrival, deliveryCount++, from, data));
+            notifyAll();
+        }
+
+        @Override
+        public int getLocalPort() {
+            return port;
+        }
+
+        @Override
+        public void send(DatagramPacket packet) {
+            RxPNetEmulator.this.send(port, packet);
+        }
+
+        @Override
+        public synchronized void receive(DatagramPacket packet) throws IOException {
+            long deadline = timeout > 0 ? System.nanoTime() + timeout * 1000000L : Long.MAX_VALUE;
+            while (true) {
+                long now = System.nanoTime();
+                Delivery next = deliveries.peek();
+                if (next != null && next.arrival <= now) {
+                    deliveries.poll();
+                    //like a socket, the part of the datagram that does not fit is dropped
+                    int length = Math.min(next.data.length, packet.getLength());
+                    System.arraycopy(next.data, 0, packet.getData(), packet.getOffset(), length);
+                    packet.setLength(length);
+                    packet.setAddress(address);
+                    packet.setPort(next.from);
+                    return;
+                }
+                if (now >= deadline) {
+                    throw new SocketTimeoutException("Receive timed out");
+                }
+                long wait = Math.min(next != null ? next.arrival - now : Long.MAX_VALUE, deadline - now);
+                try {
+                    if (wait == Long.MAX_VALUE) {
+                        wait();
+                    } else {
+                        wait(wait / 1000000, (int) (wait % 1000000));
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while receiving.");
+                }
+            }
+        }
+
+        @Override
+        public synchronized void setSoTimeout(int timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        public RxPTransport openSibling() throws IOException {
+            return bindFree();
+        }
+
+        @Override
+        public DatagramChannel getChannel() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            endpoints.remove(port);
+        }
+    }
+}
@@ -1,8 +1,5 @@
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
 
 
 public class RxPPacket {
@@ -13,6 +10,14 @@ public class RxPPacket {
     // Packet data/payload
     private byte[] data;
 
+    // Checksum objects are reused by each thread
+    private static final ThreadLocal<RxPChecksum> CHECKSUMS = new ThreadLocal<RxPChecksum>() {
+        @Override
+        protected RxPChecksum initialValue() {
+            return new RxPChecksum();
+        }
+    };
+
 
     /*
      * Constructor for a RxP packet with a provided header and data
@@ -27,12 +32,12 @@ public class RxPPacket {
      */
     public RxPPacket(byte[] packetByteArray) {
         // Obtains bytes in header
-        byte[] headerBytes = Arrays.copyOfRange(packetByteArray, 0, 28);
+        byte[] headerBytes = Arrays.copyOfRange(packetByteArray, 0, RxPCodec.HEADER_SIZE);
         this.setHeader(new RxPHeader(headerBytes));
 
         // Obtains bytes in data
-        if (packetByteArray.length > 28) {
-            byte[] dataBytes = Arrays.copyOfRange(packetByteArray, 28, packetByteArray.length);
+        if (packetByteArray.length > RxPCodec.HEADER_SIZE) {
+            byte[] dataBytes = Arrays.copyOfRange(packetByteArray, RxPCodec.HEADER_SIZE, packetByteArray.length);
             this.setData(dataBytes);
         }
     }
@@ -41,26 +46,30 @@ public class RxPPacket {
      * Convert a packet into a byte array
      */
     public byte[] getPacketByteArray() {
-        byte[] packetByteArray;
-        byte[] headerByteArray;
-
-        headerByteArray = header.getHeaderByteArray();
-
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        try {
-            outputStream.write(headerByteArray);
-            if (data != null) {
-                outputStream.write(data);
-            }
-        } catch (IOException e) {
-            //catch exception
-        }
+        byte[] packetByteArray = new byte[getLength()];
 
-        packetByteArray = outputStream.toByteArray();
+        writeTo(ByteBuffer.wrap(packetByteArray));
 
         return packetByteArray;
     }
 
+    /*
+     * Writes the packet at the buffer's position and advances the position past it
+     */
+    public void writeTo(ByteBuffer byteBuffer) {
+        header.writeTo(byteBuffer);
+        if (data != null) {
+            byteBuffer.put(data);
+        }
+    }
+
+    /*
+     * Returns the number of bytes in the packet
+     */
+    public int getLength() {
+        return RxPCodec.HEADER_SIZE + (data == null ? 0 : data.length);
+    }
+
     //getters and setters
     public RxPHeader getHeader() {
         return header;
@@ -82,29 +91,28 @@ public class RxPPacket {
      * Updates the checksum field in the packet header
      */
     public void updateChecksum() {
-        header.setChecksum(calculateChecksum());
+        updateChecksum(RxPChecksum.CRC32);
+    }
+
+    /*
+     * Updates the checksum field in the packet header using the given checksum type
+     */
+    public void updateChecksum(int checksumType) {
+        header.setChecksum(calculateChecksum(checksumType));
     }
 
     /*
      * Calculate checksum using CRC library
      */
     public int calculateChecksum() {
-        int checksumValue;
-
-        CRC32 checksum = new CRC32();
-
-        byte[] packetByteArray = getPacketByteArray();
-
-        // Don't include the actual checksum field when calculating
-        packetByteArray[16] = 0x00;
-        packetByteArray[17] = 0x00;
-        packetByteArray[18] = 0x00;
-        packetByteArray[19] = 0x00;
-
-        checksum.update(packetByteArray);
-        checksumValue = (int) checksum.getValue();
+        return calculateChecksum(RxPChecksum.CRC32);
+    }
 
-        return checksumValue;
+    /*
+     * Calculate checksum of the given type over the header and data, without building the whole packet
+     */
+    public int calculateChecksum(int checksumType) {
+        return CHECKSUMS.get().calculate(checksumType, header.getHeaderByteArray(), data);
     }
 
 }
\ No newline at end of file
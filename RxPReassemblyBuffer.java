@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+
+/*
+ * Holds the packets a client receives ahead of a gap, by sequence number modulo its capacity, until the
+ * packets before them arrive and they can be written in order. It also describes what it holds as ranges
+ * of sequence numbers, which the client reports to the server in its ACKs when selective ACKs are agreed on,
+ * so only the gaps are sent again.
+ * Room for a packet is only allocated the first time a slot is used.
+ */
+public class RxPReassemblyBuffer {
+
+    private final int packetSize;
+    private final byte[][] packets;
+    private final int[] lengths;
+    //the sequence number each slot holds, or -1
+    private final int[] sequenceNumbers;
+    //highest sequence number held, or -1
+    private int highest = -1;
+
+    /*
+     * @param capacity the most packets held, which is the receive window of the transfer.
+     * @param mss the largest payload of a packet.
+     */
+    public RxPReassemblyBuffer(int capacity, int mss) {
+        packetSize = RxPCodec.HEADER_SIZE + mss;
+        packets = new byte[capacity][];
+        lengths = new int[capacity];
+        sequenceNumbers = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            sequenceNumbers[i] = -1;
+        }
+    }
+
+    /*
+     * Holds a copy of a packet that arrived ahead of a gap, if it fits.
+     * @param codec the codec pointing at the packet.
+     * @param next the sequence number of the next packet expected.
+     * @return whether it is held.
+     */
+    public boolean store(RxPCodec codec, int next) {
+        int seq = codec.getSequenceNumber();
+        if (seq <= next || seq >= next + packets.length || codec.getLength() > packetSize) {
+            return false;
+        }
+        int slot = seq % packets.length;
+        if (packets[slot] == null) {
+            packets[slot] = new byte[packetSize];
+        }
+        codec.getPacket(packets[slot], 0);
+        lengths[slot] = codec.getLength();
+        sequenceNumbers[slot] = seq;
+        highest = Math.max(highest, seq);
+        return true;
+    }
+
+    /*
+     * Returns a held packet, or null if it is not there.
+     * @param seq its sequence number.
+     */
+    public ByteBuffer get(int seq) {
+        int slot = seq % packets.length;
+        if (sequenceNumbers[slot] != seq) {
+            return null;
+        }
+        return ByteBuffer.wrap(packets[slot], 0, lengths[slot]);
+    }
+
+    /*
+     * Returns whether a packet after the next one expected is held, so the next one is missing.
+     * @param next the sequence number of the next packet expected.
+     */
+    public boolean hasGap(int next) {
+        return highest > next;
+    }
+
+    /*
+     * Writes the ranges of packets held after the next one expected, lowest first, as the first sequence
+     * number of each range and the one after its last.
+     * @param dst the buffer to write them to.
+     * @param next the sequence number of the next packet expected.
+     * @param max the most ranges to write.
+     * @return the number of ranges written.
+     */
+    public int writeRanges(ByteBuffer dst, int next, int max) {
+        int count = 0;
+        int seq = next + 1;
+        while (seq <= highest && count < max) {
+            if (sequenceNumbers[seq % packets.length] != seq) {
+                seq++;
+                continue;
+            }
+            int start = seq;
+            while (seq <= highest && sequenceNumbers[seq % packets.length] == seq) {
+                seq++;
+            }
+            dst.putInt(start);
+            dst.putInt(seq);
+            count++;
+        }
+        return count;
+    }
+}
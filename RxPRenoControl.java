@@ -0,0 +1,27 @@
+/*
+ * Reno style congestion control: slow start up to ssthresh, then additive increase of one packet
+ * per round trip, and the window is halved when a loss is detected.
+ */
+public class RxPRenoControl extends RxPCongestionControl {
+
+    @Override
+    public void onAck(int acked, int srtt) {
+        for (int i = 0; i < acked; i++) {
+            if (cwnd < ssthresh) {
+                //slow start, one more packet for every packet acknowledged
+                cwnd += 1;
+            } else {
+                //congestion avoidance, one more packet per window acknowledged
+                cwnd += 1 / cwnd;
+            }
+        }
+        record();
+    }
+
+    @Override
+    public void onLoss(int inFlight) {
+        ssthresh = Math.max(inFlight / 2, MIN_WINDOW);
+        cwnd = ssthresh;
+        record();
+    }
+}
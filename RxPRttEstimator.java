@@ -0,0 +1,112 @@
+/*
+ * Keeps a smoothed round trip time and round trip time variance for one connection and derives the
+ * retransmission timeout from them, following the algorithm used by TCP (RFC 6298).
+ * Times are in microseconds, taken from the timestamps carried in the RxP header.
+ */
+public class RxPRttEstimator {
+
+    //timeout used before the first sample, same as the old fixed timeout
+    private static final int INITIAL_RTO = 500000;
+    private static final int MIN_RTO = 5000;
+    private static final int MAX_RTO = 60000000;
+
+    //clock granularity
+    private static final int GRANULARITY = 1000;
+
+    private int srtt;
+    private int rttvar;
+    private int rto;
+    private boolean hasSample;
+    //longest the peer may hold back an ACK, added to the timeout
+    private int ackDelay = 0;
+
+    public RxPRttEstimator() {
+        this.rto = INITIAL_RTO;
+        this.hasSample = false;
+    }
+
+    /*
+     * Returns the current time as the value stamped into outgoing packets.
+     * The value wraps around, so only differences between two timestamps are meaningful.
+     */
+    public static int timestamp() {
+        return (int) (System.nanoTime() / 1000);
+    }
+
+    /*
+     * Adds a sample from the timestamp echoed back by the peer. Callers must skip packets that were
+     * retransmitted (Karn's rule), since it is not known which copy the echo belongs to.
+     * Returns the sample in microseconds, or -1 if the echo could not be used.
+     */
+    public synchronized int sampleEcho(int echoedTimestamp) {
+        int rtt = timestamp() - echoedTimestamp;
+        //ignore packets that were never stamped and stamps that make no sense
+        if (echoedTimestamp != 0 && rtt >= 0 && rtt <= MAX_RTO) {
+            sample(rtt);
+            return rtt;
+        }
+        return -1;
+    }
+
+    /*
+     * Adds a round trip time sample in microseconds and recomputes the timeout.
+     */
+    public synchronized void sample(int rtt) {
+        if (!hasSample) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+            hasSample = true;
+        } else {
+            //rttvar = 3/4 rttvar + 1/4 |srtt - rtt|, srtt = 7/8 srtt + 1/8 rtt
+            rttvar = rttvar - (rttvar >> 2) + (Math.abs(srtt - rtt) >> 2);
+            srtt = srtt - (srtt >> 3) + (rtt >> 3);
+        }
+        rto = clamp(srtt + Math.max(GRANULARITY, 4 * rttvar) + ackDelay);
+    }
+
+    /*
+     * Sets how many microseconds the peer may hold back an ACK, which the timeout has to allow for.
+     */
+    public synchronized void setAckDelay(int ackDelay) {
+        this.ackDelay = ackDelay;
+        resetBackoff();
+    }
+
+    /*
+     * Doubles the timeout after it expired without an acknowledgement.
+     */
+    public synchronized void backoff() {
+        rto = clamp(2 * rto);
+    }
+
+    /*
+     * Undoes any backoff once the peer is known to be responding again.
+     */
+    public synchronized void resetBackoff() {
+        rto = hasSample ? clamp(srtt + Math.max(GRANULARITY, 4 * rttvar) + ackDelay) : INITIAL_RTO;
+    }
+
+    private int clamp(long value) {
+        return (int) Math.max(MIN_RTO, Math.min(MAX_RTO, value));
+    }
+
+    //getters
+    public synchronized int getRto() {
+        return rto;
+    }
+
+    /*
+     * Returns the timeout in whole milliseconds, as used for socket timeouts and waits.
+     */
+    public synchronized int getRtoMillis() {
+        return Math.max(1, (rto + 999) / 1000);
+    }
+
+    public synchronized int getSrtt() {
+        return srtt;
+    }
+
+    public synchronized int getRttvar() {
+        return rttvar;
+    }
+}
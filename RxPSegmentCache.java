@@ -0,0 +1,205 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Keeps the contents of files the server sends often in memory, up to a total size, dropping the least
+ * recently used first. A file is cached the first time it is sent whole or its signatures are asked for,
+ * and dropped when its size or modification time changes. For each checksum type and segment size, the
+ * checksums of the payloads of its packets are kept too, so sending a cached file only copies memory and
+ * checksums the headers, and its signatures for delta downloads are only worked out once.
+ */
+public class RxPSegmentCache {
+
+    //operators for adding the checksum of a payload to that of a header, by checksum type and payload length
+    private static final Map<Long, int[]> OPERATORS = new ConcurrentHashMap<>();
+
+    private long capacity;
+    private long used = 0;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /*
+     * @param capacity the most bytes of file contents to keep.
+     */
+    public RxPSegmentCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /*
+     * Changes the most bytes to keep, dropping files if there are more already.
+     */
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        evict();
+    }
+
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    /*
+     * Returns the size of the largest file that is cached, so one file cannot push out all the others.
+     */
+    public synchronized long getMaxFileSize() {
+        return capacity / 4;
+    }
+
+    /*
+     * Returns the cached contents of a file, or null if it is not cached or has changed since.
+     * @param file the file.
+     * @throws java.io.IOException if the file cannot be found.
+     */
+    public Entry get(File file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        String key = key(file);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && (entry.data.length != attributes.size()
+                    || !entry.modified.equals(attributes.lastModifiedTime()))) {
+                //the file was changed
+                entries.remove(key);
+                used -= entry.data.length;
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return entry;
+        }
+    }
+
+    /*
+     * Caches the contents of a file, if there is room for it, and returns the new entry or null.
+     * @param file the file.
+     * @param modified the modification time of the file before its contents were read.
+     * @param data the contents of the file.
+     */
+    public synchronized Entry put(File file, FileTime modified, byte[] data) {
+        if (data.length > getMaxFileSize()) {
+            return null;
+        }
+        Entry entry = new Entry(data, modified);
+        Entry old = entries.put(key(file), entry);
+        if (old != null) {
+            used -= old.data.length;
+        }
+        used += data.length;
+        evict();
+        return entry;
+    }
+
+    /*
+     * Reads a file into the cache, if there is room for it, and returns the new entry or null.
+     * @param file the file.
+     */
+    public Entry load(File file) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file.toPath());
+        if (Files.size(file.toPath()) > Math.min(getMaxFileSize(), Integer.MAX_VALUE - 8)) {
+            return null;
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        //only cache what was read if the file was not changed meanwhile
+        if (!modified.equals(Files.getLastModifiedTime(file.toPath())) || data.length != Files.size(file.toPath())) {
+            return null;
+        }
+        return put(file, modified, data);
+    }
+
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (used > capacity && it.hasNext()) {
+            used -= it.next().data.length;
+            it.remove();
+        }
+    }
+
+    private static String key(File file) {
+        return file.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    /*
+     * Returns the operator for adding the checksum of a payload of the given length to that of a header.
+     */
+    public static int[] operator(int type, int length) {
+        Long key = ((long) length << 1) | type;
+        int[] operator = OPERATORS.get(key);
+        if (operator == null) {
+            operator = RxPChecksum.zerosOperator(type, length);
+            OPERATORS.put(key, operator);
+        }
+        return operator;
+    }
+
+    /*
+     * Returns a line describing what is cached, for printing with the other metrics.
+     */
+    public synchronized String describe() {
+        return "Segment cache: " + entries.size() + " files, " + used / 1024 + " of " + capacity / 1024
+                + " KB, " + hits.get() + " hits, " + misses.get() + " misses";
+    }
+
+    /*
+     * The contents of a cached file, with the checksums of its payloads.
+     */
+    public static class Entry {
+
+        private final byte[] data;
+        private final FileTime modified;
+        //checksums of the payloads, by checksum type and segment size
+        private final Map<Long, int[]> checksums = new HashMap<>();
+        private byte[] signatures;
+
+        private Entry(byte[] data, FileTime modified) {
+            this.data = data;
+            this.modified = modified;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        /*
+         * Returns the checksum of the payload of each packet the file is sent in, working them out the first
+         * time they are asked for.
+         * @param type the checksum type.
+         * @param segmentSize the number of bytes in each segment.
+         */
+        public synchronized int[] getChecksums(int type, int segmentSize) {
+            Long key = ((long) segmentSize << 1) | type;
+            int[] sums = checksums.get(key);
+            if (sums == null) {
+                RxPChecksum checksum = new RxPChecksum();
+                sums = new int[(int) Math.max(1, ((long) data.length + segmentSize - 1) / segmentSize)];
+                for (int i = 0; i < sums.length; i++) {
+                    int offset = i * segmentSize;
+                    sums[i] = checksum.calculate(type, data, offset, Math.min(segmentSize, data.length - offset));
+                }
+                checksums.put(key, sums);
+            }
+            return sums;
+        }
+
+        /*
+         * Returns the signatures of the file for delta downloads, working them out the first time.
+         */
+        public synchronized byte[] getSignatures() throws IOException {
+            if (signatures == null) {
+                signatures = RxPDelta.signatures(data);
+            }
+            return signatures;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * The sliding window of one transfer on the server: which packets are outstanding, what the client's ACKs,
+ * selective ACKs and NAKs say about them, when to resend after a loss and the retransmission timer.
+ * ServerSend and EventLoopSend share it and only differ in how they wait and send. The engine asks for the
+ * next packet to send with next(), builds it if it is new, and reports it with sent() once it has gone out,
+ * or at once if it sends it later without holding the window.
+ * It is not thread safe: ServerSend only uses it while holding its lock, and EventLoopSend only from the
+ * event loop's thread.
+ */
+public class RxPSendWindow {
+
+    private final RxPConnection conn;
+    private final RxPRttEstimator rtt;
+    private final RxPCongestionControl cc;
+    //counts the losses ACKs report, or null if no parity packets are sent
+    private final RxPFecEncoder fec;
+    private final RxPStats stats;
+    //largest number of packets in flight, which is what the stored packets are indexed modulo
+    private final int windowSize;
+    //file bytes in each packet, for counting the bytes each ACK delivers
+    private final int segmentSize;
+    //times in a row the timer may run out before giving up on the client
+    private final int maxTries;
+
+    private int totalPkts;
+    private long fileSize;
+    //whether each stored packet has been sent more than once
+    private final boolean[] retransmitted;
+    //lowest unacknowledged sequence number
+    private int sendBase = 0;
+    //next packet to send, which is moved back to resend packets after a loss
+    private int nextSeqNum = 0;
+    //first packet that has never been sent
+    private int highestSent = 0;
+    //duplicate ACKs received for the packet before sendBase
+    private int dupAcks = 0;
+    //packets the client says it holds after a gap, and the last of them, which are not resent
+    private final boolean[] sacked;
+    private int highestSacked = -1;
+    //packets from here up to highestSent are on their way rather than lost, so are not resent either
+    private int resendLimit = 0;
+    //no further window reduction until everything sent before the last loss is acknowledged
+    private int recoverSeqNum = 0;
+    //packets from sendBase on the client has room for, as it last advertised
+    private int receiveWindow;
+    //packet the client reported lost while recovering from an earlier loss, resent ahead of the rest, or -1
+    private int nakSeq = -1;
+
+    //retransmission timer for the lowest outstanding packet
+    private long deadline;
+    private int lastBase = 0;
+    private int tries = 0;
+
+    /*
+     * @param conn the connection of the client, for its window size, round trip times and agreed options.
+     * @param cc the congestion control of the transfer.
+     * @param fec the parity encoder of the transfer, or null.
+     * @param stats the metrics of the transfer.
+     * @param segmentSize the file bytes in each packet.
+     * @param maxTries how many times in a row the timer may run out before the client is given up on.
+     */
+    public RxPSendWindow(RxPConnection conn, RxPCongestionControl cc, RxPFecEncoder fec, RxPStats stats,
+                         int segmentSize, int maxTries) {
+        this.conn = conn;
+        this.cc = cc;
+        this.fec = fec;
+        this.stats = stats;
+        this.segmentSize = segmentSize;
+        this.maxTries = maxTries;
+        rtt = conn.getRtt();
+        windowSize = conn.getWindowSize();
+        receiveWindow = windowSize;
+        retransmitted = new boolean[windowSize];
+        sacked = new boolean[windowSize];
+    }
+
+    /*
+     * Sets what is sent, once the file is open, and starts the timer.
+     * @param totalPkts the number of packets in the transfer.
+     * @param fileSize the bytes the packets carry.
+     * @param now the current time in milliseconds.
+     */
+    public void start(int totalPkts, long fileSize, long now) {
+        this.totalPkts = totalPkts;
+        this.fileSize = fileSize;
+        deadline = now + rtt.getRtoMillis();
+    }
+
+    /*
+     * Returns whether every packet has been acknowledged.
+     */
+    public boolean isDone() {
+        return sendBase >= totalPkts;
+    }
+
+    /*
+     * Restarts the timer when the window has moved, and when it runs out goes back to resend everything
+     * outstanding that the client does not hold.
+     * @param now the current time in milliseconds.
+     * @return false if the timer ran out too many times in a row, so the client stopped responding.
+     */
+    public boolean checkTimer(long now) {
+        if (sendBase != lastBase) {
+            //window moved, so restart the timer for the new lowest packet
+            lastBase = sendBase;
+            tries = 0;
+            deadline = now + rtt.getRtoMillis();
+        } else if (now >= deadline) {
+            if (++tries >= maxTries) {
+                return false;
+            }
+            stats.timeout();
+            if (fec != null) {
+                fec.onLoss();
+            }
+            cc.onTimeout(highestSent - sendBase);
+            recoverSeqNum = highestSent;
+            nextSeqNum = sendBase;
+            resendLimit = highestSent;
+            //wait longer before trying again
+            rtt.backoff();
+            deadline = now + rtt.getRtoMillis();
+        }
+        return true;
+    }
+
+    /*
+     * Returns the next packet to send: one the client reported lost, one to resend after a loss or a new one,
+     * as long as the window has room. A new one is at getHighestSent().
+     * @param freshReady whether a new packet can be sent now.
+     * @return its sequence number, or -1 if there is nothing to send.
+     */
+    public int next(boolean freshReady) {
+        if (nakSeq >= 0) {
+            if (nakSeq >= sendBase && nakSeq < highestSent && !sacked[nakSeq % windowSize]) {
+                return nakSeq;
+            }
+            nakSeq = -1;
+        }
+        int windowEnd = getWindowEnd();
+        while (nextSeqNum < windowEnd && nextSeqNum < totalPkts) {
+            if (nextSeqNum >= highestSent) {
+                return freshReady ? nextSeqNum : -1;
+            }
+            if (!sacked[nextSeqNum % windowSize] && nextSeqNum < resendLimit) {
+                return nextSeqNum;
+            }
+            nextSeqNum++;
+        }
+        return -1;
+    }
+
+    /*
+     * Records that the packet next() returned has been sent.
+     * @param seq its sequence number.
+     */
+    public void sent(int seq) {
+        int index = seq % windowSize;
+        if (seq == nakSeq) {
+            retransmitted[index] = true;
+            nakSeq = -1;
+            return;
+        }
+        if (seq == highestSent) {
+            retransmitted[index] = false;
+            sacked[index] = false;
+            highestSent++;
+        } else {
+            retransmitted[index] = true;
+        }
+        nextSeqNum = seq + 1;
+    }
+
+    /*
+     * Handles an ACK from the client.
+     * @param codec the codec pointing at the ACK.
+     * @return whether it allows more to be sent, by moving the window or reporting a loss.
+     */
+    public boolean ack(RxPCodec codec) {
+        int sqNum = codec.getSequenceNumber();
+        int echoedTimestamp = codec.getTimestamp();
+        boolean wake = false;
+        int lastSacked = highestSacked;
+        if (conn.isSack()) {
+            readSack(codec);
+        }
+        //an ACK for the packet before sendBase or later says how much room the client has now
+        if (conn.isRwnd() && sqNum >= sendBase - 1) {
+            receiveWindow = Math.max(1, codec.getAckNumber());
+        }
+        //the client writes packets in order, so an ACK covers every
+        //packet up to and including its sequence number
+        if (sqNum >= sendBase && sqNum < highestSent) {
+            //only sample packets that were sent once (Karn's rule)
+            if (!retransmitted[sqNum % windowSize]) {
+                int sample = rtt.sampleEcho(echoedTimestamp);
+                if (sample >= 0) {
+                    stats.rtt(sample);
+                }
+            } else {
+                rtt.resetBackoff();
+            }
+            stats.window(highestSent - sendBase);
+            stats.delivered(Math.min((long) (sqNum + 1) * segmentSize, fileSize) - Math.min((long) sendBase * segmentSize, fileSize));
+            cc.onAck(sqNum + 1 - sendBase, rtt.getSrtt());
+            sendBase = sqNum + 1;
+            nextSeqNum = Math.max(nextSeqNum, sendBase);
+            dupAcks = 0;
+            wake = true;
+        } else if (sqNum == sendBase - 1) {
+            //the client repeats its last ACK for every packet it gets out of order,
+            //so three repeats mean the packet at sendBase was lost
+            dupAcks++;
+            stats.duplicate();
+            if (dupAcks == 1 && fec != null) {
+                fec.onLoss();
+            }
+            if (dupAcks >= 3 + parityWait() && sendBase >= recoverSeqNum && sendBase < highestSent) {
+                cc.onLoss(highestSent - sendBase);
+                recoverSeqNum = highestSent;
+                //go back and resend what is outstanding without waiting for the timer: only the gaps
+                //before the last packet the client holds, if it says which it holds
+                nextSeqNum = sendBase;
+                resendLimit = conn.isSack() ? Math.max(highestSacked, sendBase) + 1 : highestSent;
+                wake = true;
+            }
+        }
+        //a NAK reports the packet at sendBase lost without waiting for more duplicate ACKs
+        if (codec.isNak() && conn.isNak() && sqNum == sendBase - 1 && sendBase < highestSent) {
+            stats.nak();
+            nak();
+            wake = true;
+        }
+        //while recovering, gaps that later ACKs show before the last packet the client holds are resent at once
+        if (sendBase < recoverSeqNum && highestSacked > lastSacked && highestSacked >= resendLimit) {
+            nextSeqNum = Math.min(nextSeqNum, Math.max(resendLimit, sendBase));
+            resendLimit = highestSacked + 1;
+            wake = true;
+        }
+        return wake;
+    }
+
+    /*
+     * Returns how many more duplicate ACKs than the usual 3 a fast retransmit waits for, while the parity packet
+     * of the group holding the packet at sendBase may still repair it. Every packet of the group after the lost
+     * one brings a duplicate ACK before the parity packet arrives, so it waits for those and no more: if the
+     * parity packet is lost, the packets after it start the retransmit. It does not wait at all when the
+     * client's selective ACKs show another packet of the group missing, as one parity packet cannot repair two.
+     */
+    private int parityWait() {
+        if (fec == null) {
+            return 0;
+        }
+        int after = fec.packetsAfter(sendBase);
+        if (conn.isSack()) {
+            int last = Math.min(sendBase + after, highestSacked);
+            for (int seq = sendBase + 1; seq <= last; seq++) {
+                if (!sacked[seq % windowSize]) {
+                    return 0;
+                }
+            }
+        }
+        return after;
+    }
+
+    /*
+     * Resends the packet at sendBase after the client reported it lost: as a fast retransmit if no loss
+     * is being recovered from, or on its own if it was not resent since.
+     */
+    private void nak() {
+        if (sendBase >= recoverSeqNum) {
+            cc.onLoss(highestSent - sendBase);
+            recoverSeqNum = highestSent;
+            //the client holds what arrived after the gap, so only the gaps before the last packet it holds
+            //are resent
+            nextSeqNum = sendBase;
+            resendLimit = Math.max(highestSacked, sendBase) + 1;
+        } else if (!retransmitted[sendBase % windowSize]) {
+            nakSeq = sendBase;
+        }
+    }
+
+    /*
+     * Marks the packets the client says it holds, from the ranges after the header of its ACK, so they
+     * are not sent again.
+     * @param codec the codec pointing at the ACK.
+     */
+    private void readSack(RxPCodec codec) {
+        int ranges = Math.min(codec.getDataLength() / 8, RxPAPI.MAX_SACK_RANGES);
+        for (int i = 0; i < ranges; i++) {
+            int start = Math.max(codec.getDataInt(8 * i), sendBase);
+            int end = Math.min(codec.getDataInt(8 * i + 4), highestSent);
+            for (int seq = start; seq < end; seq++) {
+                sacked[seq % windowSize] = true;
+            }
+            if (end > start) {
+                highestSacked = Math.max(highestSacked, end - 1);
+            }
+        }
+    }
+
+    /*
+     * Returns the first sequence number the window does not allow to be sent yet, bounded by the client's
+     * window, the congestion window and the room the client last advertised.
+     */
+    public int getWindowEnd() {
+        return sendBase + Math.min(Math.min(cc.getWindow(), windowSize), receiveWindow);
+    }
+
+    public int getHighestSent() {
+        return highestSent;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+}
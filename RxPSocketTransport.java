@@ -0,0 +1,65 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.channels.DatagramChannel;
+
+/*
+ * Sends and receives datagrams over a real UDP socket. The socket is the blocking view of a
+ * DatagramChannel, so the server's event loop can use the same port without blocking.
+ */
+public class RxPSocketTransport implements RxPTransport {
+
+    //socket buffer size asked for, so a full window of large packets is not dropped by the operating system
+    private static final int SOCKET_BUFFER = 4 * 1024 * 1024;
+
+    private final DatagramChannel channel;
+    private final DatagramSocket socket;
+
+    /*
+     * Opens a socket bound to the given port.
+     */
+    public RxPSocketTransport(int port) throws IOException {
+        channel = DatagramChannel.open();
+        socket = channel.socket();
+        socket.bind(new InetSocketAddress(port));
+        socket.setReceiveBufferSize(SOCKET_BUFFER);
+        socket.setSendBufferSize(SOCKET_BUFFER);
+    }
+
+    @Override
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public void send(DatagramPacket packet) throws IOException {
+        socket.send(packet);
+    }
+
+    @Override
+    public void receive(DatagramPacket packet) throws IOException {
+        socket.receive(packet);
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) throws SocketException {
+        socket.setSoTimeout(timeout);
+    }
+
+    @Override
+    public RxPTransport openSibling() throws IOException {
+        return new RxPSocketTransport(0);
+    }
+
+    @Override
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
@@ -0,0 +1,371 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Counters and histograms of what happened during transfers: packets and bytes each way,
+ * retransmissions and timeouts, checksum failures, duplicate and out of order arrivals, ACK round trip
+ * times, time to first byte, goodput, window occupancy and time spent waiting on the disk.
+ * A connection keeps one for all of its transfers and each transfer keeps its own, which passes every
+ * update on to the connection's. Updates are lock free, so they can be made for every packet.
+ */
+public class RxPStats implements RxPStatsMBean {
+
+    //the connection's stats, for a transfer's, or null
+    private final RxPStats parent;
+
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder packetsReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder retransmissions = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder checksumFailures = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder outOfOrder = new LongAdder();
+    //parity packets sent, and lost packets repaired from them
+    private final LongAdder parityPackets = new LongAdder();
+    private final LongAdder repaired = new LongAdder();
+    //ACKs reporting a lost packet, sent or received
+    private final LongAdder naks = new LongAdder();
+    //file bytes delivered in order, for the goodput
+    private final LongAdder fileBytes = new LongAdder();
+    private final LongAdder diskNanos = new LongAdder();
+    //file bytes that were compressed or decompressed, and their compressed size
+    private final LongAdder compressedIn = new LongAdder();
+    private final LongAdder compressedOut = new LongAdder();
+    private final LongAdder transfers = new LongAdder();
+    //nanoseconds spent in finished transfers
+    private final LongAdder transferNanos = new LongAdder();
+
+    private final RxPHistogram rtt = new RxPHistogram();
+    private final RxPHistogram timeToFirstByte = new RxPHistogram();
+    private final RxPHistogram window = new RxPHistogram();
+
+    //when this transfer started and first delivered data, 0 if it has not
+    private volatile long startNanos;
+    private volatile long firstByteNanos;
+    private volatile boolean running;
+
+    public RxPStats(RxPStats parent) {
+        this.parent = parent;
+    }
+
+    /*
+     * Counts a packet sent, and whether it was sent before.
+     */
+    public void sent(int bytes, boolean retransmission) {
+        packetsSent.increment();
+        bytesSent.add(bytes);
+        if (retransmission) {
+            retransmissions.increment();
+        }
+        if (parent != null) {
+            parent.sent(bytes, retransmission);
+        }
+    }
+
+    public void received(int bytes) {
+        packetsReceived.increment();
+        bytesReceived.add(bytes);
+        if (parent != null) {
+            parent.received(bytes);
+        }
+    }
+
+    public void timeout() {
+        timeouts.increment();
+        if (parent != null) {
+            parent.timeout();
+        }
+    }
+
+    public void checksumFailure() {
+        checksumFailures.increment();
+        if (parent != null) {
+            parent.checksumFailure();
+        }
+    }
+
+    /*
+     * Counts a packet that arrived again, such as a repeated ACK or data that was already received.
+     */
+    public void duplicate() {
+        duplicates.increment();
+        if (parent != null) {
+            parent.duplicate();
+        }
+    }
+
+    public void outOfOrder() {
+        outOfOrder.increment();
+        if (parent != null) {
+            parent.outOfOrder();
+        }
+    }
+
+    /*
+     * Counts a parity packet sent, on top of counting it as sent.
+     */
+    public void parity() {
+        parityPackets.increment();
+        if (parent != null) {
+            parent.parity();
+        }
+    }
+
+    /*
+     * Counts a lost packet rebuilt from a parity packet.
+     */
+    public void repaired() {
+        repaired.increment();
+        if (parent != null) {
+            parent.repaired();
+        }
+    }
+
+    /*
+     * Counts an ACK that reports a lost packet, on top of counting it as sent or received.
+     */
+    public void nak() {
+        naks.increment();
+        if (parent != null) {
+            parent.nak();
+        }
+    }
+
+    /*
+     * Records a round trip time sample in microseconds.
+     */
+    public void rtt(long micros) {
+        rtt.record(micros);
+        if (parent != null) {
+            parent.rtt(micros);
+        }
+    }
+
+    /*
+     * Records how many packets were in flight.
+     */
+    public void window(int packets) {
+        window.record(packets);
+        if (parent != null) {
+            parent.window(packets);
+        }
+    }
+
+    /*
+     * Counts file bytes delivered in order, and records the time to the first of them.
+     */
+    public void delivered(long bytes) {
+        if (firstByteNanos == 0 && running) {
+            firstByteNanos = System.nanoTime();
+            recordTimeToFirstByte((firstByteNanos - startNanos) / 1000);
+        }
+        addFileBytes(bytes);
+    }
+
+    private void recordTimeToFirstByte(long micros) {
+        timeToFirstByte.record(micros);
+        if (parent != null) {
+            parent.recordTimeToFirstByte(micros);
+        }
+    }
+
+    private void addFileBytes(long bytes) {
+        fileBytes.add(bytes);
+        if (parent != null) {
+            parent.addFileBytes(bytes);
+        }
+    }
+
+    /*
+     * Counts a segment that was compressed or decompressed.
+     * @param bytes the size of the segment.
+     * @param compressedBytes its compressed size.
+     */
+    public void compressed(int bytes, int compressedBytes) {
+        compressedIn.add(bytes);
+        compressedOut.add(compressedBytes);
+        if (parent != null) {
+            parent.compressed(bytes, compressedBytes);
+        }
+    }
+
+    /*
+     * Adds time spent waiting to read or write the file.
+     */
+    public void disk(long nanos) {
+        diskNanos.add(nanos);
+        if (parent != null) {
+            parent.disk(nanos);
+        }
+    }
+
+    /*
+     * Marks the start of a transfer.
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+        running = true;
+    }
+
+    /*
+     * Marks the end of a transfer.
+     */
+    public void end() {
+        if (running) {
+            running = false;
+            addTransfer(System.nanoTime() - startNanos);
+        }
+    }
+
+    private void addTransfer(long nanos) {
+        transfers.increment();
+        transferNanos.add(nanos);
+        if (parent != null) {
+            parent.addTransfer(nanos);
+        }
+    }
+
+    @Override
+    public long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getPacketsReceived() {
+        return packetsReceived.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getRetransmissions() {
+        return retransmissions.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getChecksumFailures() {
+        return checksumFailures.sum();
+    }
+
+    @Override
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    @Override
+    public long getOutOfOrder() {
+        return outOfOrder.sum();
+    }
+
+    @Override
+    public long getParityPackets() {
+        return parityPackets.sum();
+    }
+
+    @Override
+    public long getRepaired() {
+        return repaired.sum();
+    }
+
+    @Override
+    public long getNaks() {
+        return naks.sum();
+    }
+
+    @Override
+    public long getFileBytes() {
+        return fileBytes.sum();
+    }
+
+    @Override
+    public long getTransfers() {
+        return transfers.sum();
+    }
+
+    @Override
+    public long getRttP50() {
+        return rtt.getPercentile(50);
+    }
+
+    @Override
+    public long getRttP90() {
+        return rtt.getPercentile(90);
+    }
+
+    @Override
+    public long getRttP99() {
+        return rtt.getPercentile(99);
+    }
+
+    @Override
+    public long getRttMax() {
+        return rtt.getPercentile(100);
+    }
+
+    @Override
+    public long getTimeToFirstByte() {
+        return timeToFirstByte.getPercentile(50);
+    }
+
+    /*
+     * Returns the file bytes delivered per second of transfer time, including a transfer still running.
+     */
+    @Override
+    public double getGoodputKBps() {
+        long nanos = transferNanos.sum() + (running ? System.nanoTime() - startNanos : 0);
+        return nanos == 0 ? 0 : fileBytes.sum() / 1024.0 / (nanos / 1e9);
+    }
+
+    @Override
+    public double getMeanWindowOccupancy() {
+        return window.getMean();
+    }
+
+    @Override
+    public long getDiskMillis() {
+        return diskNanos.sum() / 1000000;
+    }
+
+    @Override
+    public long getCompressedFileBytes() {
+        return compressedIn.sum();
+    }
+
+    @Override
+    public long getCompressedBytes() {
+        return compressedOut.sum();
+    }
+
+    /*
+     * Returns the metrics as lines of text.
+     */
+    @Override
+    public String toString() {
+        return String.format("  packets sent %d (%d bytes), received %d (%d bytes)%n"
+                        + "  retransmissions %d, timeouts %d, checksum failures %d, duplicates %d, out of order %d%n"
+                        + "  parity packets %d, repaired %d, NAKs %d%n"
+                        + "  rtt p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms%n"
+                        + "  transfers %d, time to first byte %.1f ms, %d file bytes at %.1f KB/s%n"
+                        + "  mean packets in flight %.1f, disk %d ms, %d file bytes compressed to %d",
+                getPacketsSent(), getBytesSent(), getPacketsReceived(), getBytesReceived(),
+                getRetransmissions(), getTimeouts(), getChecksumFailures(), getDuplicates(), getOutOfOrder(),
+                getParityPackets(), getRepaired(), getNaks(),
+                getRttP50() / 1000.0, getRttP90() / 1000.0, getRttP99() / 1000.0, getRttMax() / 1000.0,
+                getTransfers(), getTimeToFirstByte() / 1000.0, getFileBytes(), getGoodputKBps(),
+                getMeanWindowOccupancy(), getDiskMillis(), getCompressedFileBytes(), getCompressedBytes());
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * The transfer metrics of a connection, or of a single transfer, as seen through JMX.
+ * Times are in microseconds unless the name says otherwise.
+ */
+public interface RxPStatsMBean {
+
+    long getPacketsSent();
+
+    long getBytesSent();
+
+    long getPacketsReceived();
+
+    long getBytesReceived();
+
+    long getRetransmissions();
+
+    long getTimeouts();
+
+    long getChecksumFailures();
+
+    long getDuplicates();
+
+    long getOutOfOrder();
+
+    long getParityPackets();
+
+    long getRepaired();
+
+    long getNaks();
+
+    long getFileBytes();
+
+    long getTransfers();
+
+    long getRttP50();
+
+    long getRttP90();
+
+    long getRttP99();
+
+    long getRttMax();
+
+    long getTimeToFirstByte();
+
+    double getGoodputKBps();
+
+    double getMeanWindowOccupancy();
+
+    long getDiskMillis();
+
+    long getCompressedFileBytes();
+
+    long getCompressedBytes();
+}
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/*
+ * Receives one stripe of a file sent in stripes, each on its own connection. A stripe holds every stripes-th
+ * block of the file, starting with the block of its index, one after another, so each byte is written at
+ * its place in the file with a positional write. The stripes of a file share one FileChannel, whose own
+ * position is never moved, so they can be written in any order and from several threads at once.
+ * The data of the transfer is written to it in order, as it would be to a file.
+ */
+public class RxPStripeWriter implements WritableByteChannel {
+
+    private final FileChannel channel;
+    private final int stripe;
+    private final int stripes;
+    private final long blockSize;
+    //bytes of the stripe written so far
+    private long written = 0;
+    private boolean open = true;
+
+    /*
+     * @param channel the received file, shared by every stripe.
+     * @param stripe the index of the stripe, from 0.
+     * @param stripes the number of stripes the file is sent in.
+     * @param blockSize the number of bytes in each block.
+     */
+    public RxPStripeWriter(FileChannel channel, int stripe, int stripes, long blockSize) {
+        this.channel = channel;
+        this.stripe = stripe;
+        this.stripes = stripes;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int count = src.remaining();
+        while (src.hasRemaining()) {
+            //the rest of the current block goes to its place in the file
+            long block = written / blockSize;
+            long inBlock = written % blockSize;
+            long position = (block * stripes + stripe) * blockSize + inBlock;
+            int limit = src.limit();
+            src.limit(src.position() + (int) Math.min(src.remaining(), blockSize - inBlock));
+            try {
+                while (src.hasRemaining()) {
+                    int n = channel.write(src, position);
+                    position += n;
+                    written += n;
+                }
+            } finally {
+                src.limit(limit);
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Forces the file to disk, with what the other stripes wrote to it.
+     */
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /*
+     * Stops the stripe; the file itself is closed once every stripe is done.
+     */
+    @Override
+    public void close() {
+        open = false;
+    }
+}
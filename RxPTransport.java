@@ -0,0 +1,45 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketException;
+import java.nio.channels.DatagramChannel;
+
+/*
+ * Sends and receives the datagrams of one side of an RxP connection. RxPSocketTransport uses a real UDP
+ * socket; RxPNetEmulator provides transports that talk to each other inside the JVM over an emulated
+ * network, so transfers can be measured repeatably without NetEmu.
+ */
+public interface RxPTransport {
+
+    /*
+     * Returns the port this side is bound to.
+     */
+    int getLocalPort();
+
+    /*
+     * Sends a datagram to the address and port set in the packet.
+     */
+    void send(DatagramPacket packet) throws IOException;
+
+    /*
+     * Waits for a datagram and copies it into the packet, setting its length, address and port.
+     * Throws a java.net.SocketTimeoutException if nothing arrives within the timeout.
+     */
+    void receive(DatagramPacket packet) throws IOException;
+
+    /*
+     * Sets how long receive() waits, in milliseconds, or 0 to wait forever.
+     */
+    void setSoTimeout(int timeout) throws SocketException;
+
+    /*
+     * Opens another transport of the same kind on a free port, for another connection to the same peer.
+     */
+    RxPTransport openSibling() throws IOException;
+
+    /*
+     * Returns the channel for RxPAPI.eventLoop() to use without blocking, or null if there is none.
+     */
+    DatagramChannel getChannel();
+
+    void close();
+}
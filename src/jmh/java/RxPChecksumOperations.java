@@ -0,0 +1,39 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+import rxp.jmh.ChecksumBenchmark;
+
+/*
+ * What ChecksumBenchmark measures: the checksum of a full packet of random data.
+ */
+public class RxPChecksumOperations implements ChecksumBenchmark.Checksum {
+
+    private int type;
+    private RxPPacket packet;
+    private RxPCodec codec;
+
+    @Override
+    public void setup(String name) {
+        type = RxPChecksum.parse(name);
+        if (type < 0) {
+            throw new IllegalArgumentException("Unknown checksum " + name + ".");
+        }
+        byte[] data = new byte[RxPAPI.ETHERNET_MSS];
+        new Random(3251).nextBytes(data);
+        RxPHeader header = new RxPHeader(8080, 8081, 1);
+        header.setTimestamp(12345);
+        packet = new RxPPacket(header, data);
+        byte[] packetBytes = packet.getPacketByteArray();
+        codec = new RxPCodec();
+        codec.wrap(ByteBuffer.wrap(packetBytes), 0, packetBytes.length).setChecksumType(type);
+    }
+
+    @Override
+    public int packetChecksum() {
+        return packet.calculateChecksum(type);
+    }
+
+    @Override
+    public int codecChecksum() {
+        return codec.calculateChecksum();
+    }
+}
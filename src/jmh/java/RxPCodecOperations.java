@@ -0,0 +1,64 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+import rxp.jmh.CodecBenchmark;
+
+/*
+ * What CodecBenchmark measures: a header and a full packet of random data, encoded and decoded
+ * with RxPHeader and RxPPacket, which allocate, and with RxPCodec, which reuses its buffers.
+ */
+public class RxPCodecOperations implements CodecBenchmark.Codec {
+
+    private RxPHeader header;
+    private RxPPacket packet;
+    private byte[] headerBytes;
+    private byte[] packetBytes;
+    private ByteBuffer headerBuffer;
+    private ByteBuffer packetBuffer;
+    private RxPCodec codec;
+
+    @Override
+    public void setup() {
+        byte[] data = new byte[RxPAPI.ETHERNET_MSS];
+        new Random(3251).nextBytes(data);
+        header = new RxPHeader(8080, 8081, 1);
+        header.setTimestamp(12345);
+        packet = new RxPPacket(header, data);
+        headerBytes = header.getHeaderByteArray();
+        packetBytes = packet.getPacketByteArray();
+        headerBuffer = ByteBuffer.allocate(RxPCodec.HEADER_SIZE);
+        packetBuffer = ByteBuffer.wrap(packetBytes.clone());
+        codec = new RxPCodec();
+    }
+
+    @Override
+    public Object headerToBytes() {
+        return header.getHeaderByteArray();
+    }
+
+    @Override
+    public Object headerFromBytes() {
+        return new RxPHeader(headerBytes);
+    }
+
+    @Override
+    public Object encodeHeader() {
+        headerBuffer.clear();
+        RxPCodec.encodeHeader(headerBuffer, 8080, 8081, 1, 0, 0, 0, 12345);
+        return headerBuffer;
+    }
+
+    @Override
+    public Object packetToBytes() {
+        return packet.getPacketByteArray();
+    }
+
+    @Override
+    public Object packetFromBytes() {
+        return new RxPPacket(packetBytes);
+    }
+
+    @Override
+    public Object wrap() {
+        return codec.wrap(packetBuffer, 0, packetBytes.length);
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.openjdk.jmh.infra.Blackhole;
+import rxp.jmh.SegmentBenchmark;
+
+/*
+ * What SegmentBenchmark measures: every segment of a file of random bytes put in a packet after its header
+ * and checksummed with CRC32C. Read from disk the whole packet is checksummed; read from the cache only the
+ * header is, and combined with the checksum the cache keeps for the segment.
+ */
+public class RxPSegmentOperations implements SegmentBenchmark.Segmenter {
+
+    private static final int MSS = RxPAPI.ETHERNET_MSS;
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+    private final File file = new File("rxpsegment.dat");
+    private final ByteBuffer segmentBuffer = ByteBuffer.allocate(MSS + RxPCodec.HEADER_SIZE);
+    private final RxPCodec codec = new RxPCodec();
+    //null when reading from disk
+    private RxPSegmentCache.Entry cached;
+
+    @Override
+    public void setup(String source) throws IOException {
+        byte[] contents = new byte[FILE_SIZE];
+        new Random(3251).nextBytes(contents);
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(contents);
+        fileOutputStream.close();
+        if (source.equals("cache")) {
+            cached = new RxPSegmentCache(4L * FILE_SIZE).load(file);
+        } else if (!source.equals("disk")) {
+            throw new IllegalArgumentException("Unknown source " + source + ".");
+        }
+    }
+
+    @Override
+    public void segment(Blackhole blackhole) throws IOException {
+        RxPFileReader reader = cached != null ? new RxPFileReader(cached, MSS) : new RxPFileReader(file, MSS);
+        try {
+            long segments = reader.getSegmentCount();
+            for (int seq = 0; seq < segments; seq++) {
+                segmentBuffer.clear();
+                RxPCodec.encodeHeader(segmentBuffer, 8081, 8080, seq, 0, 0,
+                        seq == segments - 1 ? RxPCodec.FIN : 0, RxPRttEstimator.timestamp());
+                reader.nextSegment(segmentBuffer);
+                segmentBuffer.flip();
+                codec.wrap(segmentBuffer).setChecksumType(RxPChecksum.CRC32C);
+                if (cached != null) {
+                    codec.setChecksum(reader.packetChecksum(RxPChecksum.CRC32C, codec.calculateHeaderChecksum()));
+                } else {
+                    codec.updateChecksum();
+                }
+                blackhole.consume(codec.getChecksum());
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    public void tearDown() {
+        file.delete();
+    }
+}
@@ -0,0 +1,76 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.Random;
+import rxp.jmh.TransferBenchmark;
+
+/*
+ * What TransferBenchmark measures: a whole file downloaded with recvFrom from a blocking server listening on
+ * another thread. Both sides bind to free ports, so the benchmark does not clash with anything running.
+ */
+public class RxPTransferOperations implements TransferBenchmark.Transfer {
+
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+    private static final String FILE_NAME = "rxptransfer.dat";
+
+    private final PrintStream out = System.out;
+    private RxPTransport serverTransport;
+    private RxPAPI clientRxP;
+
+    @Override
+    public void setup(int window) throws IOException {
+        byte[] contents = new byte[FILE_SIZE];
+        new Random(3251).nextBytes(contents);
+        FileOutputStream fileOutputStream = new FileOutputStream(FILE_NAME);
+        fileOutputStream.write(contents);
+        fileOutputStream.close();
+
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        serverTransport = new RxPSocketTransport(0);
+        RxPTransport clientTransport = new RxPSocketTransport(0);
+        final RxPAPI serverRxP = new RxPAPI(serverTransport, loopback, clientTransport.getLocalPort(), false);
+        clientRxP = new RxPAPI(clientTransport, loopback, serverTransport.getLocalPort(), true);
+        Thread server = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    serverRxP.listen();
+                } catch (IOException e) {
+                    //the socket was closed at the end of the benchmark
+                }
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+        //the transfers print progress messages, which are not wanted between the results
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        //download whole files as they are, not just what differs from the file next to the download, and not
+        //compressed, so the transfer itself is measured
+        clientRxP.setDelta("off");
+        clientRxP.setCompression("off");
+        clientRxP.createConnection();
+        clientRxP.updateWindow(Integer.toString(window));
+    }
+
+    @Override
+    public void download() throws IOException {
+        clientRxP.recvFrom(FILE_NAME);
+    }
+
+    @Override
+    public void tearDown() {
+        clientRxP.close();
+        serverTransport.close();
+        System.setOut(out);
+        new File(FILE_NAME).delete();
+        new File("rxptransfer1.dat").delete();
+    }
+}
@@ -0,0 +1,60 @@
+package rxp.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * The checksum of a full Ethernet sized packet, with RxPPacket and with RxPCodec, for each checksum type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ChecksumBenchmark {
+
+    /*
+     * Implemented by RxPChecksumOperations.
+     */
+    public interface Checksum {
+
+        void setup(String type);
+
+        int packetChecksum();
+
+        int codecChecksum();
+    }
+
+    @Param({"crc32", "crc32c"})
+    public String type;
+
+    private Checksum checksum;
+
+    @Setup
+    public void setup() {
+        checksum = Operations.load(Checksum.class, "RxPChecksumOperations");
+        checksum.setup(type);
+    }
+
+    @Benchmark
+    public void packetChecksum(Blackhole blackhole) {
+        blackhole.consume(checksum.packetChecksum());
+    }
+
+    @Benchmark
+    public void codecChecksum(Blackhole blackhole) {
+        blackhole.consume(checksum.codecChecksum());
+    }
+}
@@ -0,0 +1,84 @@
+package rxp.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Building and reading headers and full Ethernet sized packets, with RxPHeader and RxPPacket and with RxPCodec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CodecBenchmark {
+
+    /*
+     * Implemented by RxPCodecOperations.
+     */
+    public interface Codec {
+
+        void setup();
+
+        Object headerToBytes();
+
+        Object headerFromBytes();
+
+        Object encodeHeader();
+
+        Object packetToBytes();
+
+        Object packetFromBytes();
+
+        Object wrap();
+    }
+
+    private Codec codec;
+
+    @Setup
+    public void setup() {
+        codec = Operations.load(Codec.class, "RxPCodecOperations");
+        codec.setup();
+    }
+
+    @Benchmark
+    public void headerToBytes(Blackhole blackhole) {
+        blackhole.consume(codec.headerToBytes());
+    }
+
+    @Benchmark
+    public void headerFromBytes(Blackhole blackhole) {
+        blackhole.consume(codec.headerFromBytes());
+    }
+
+    @Benchmark
+    public void encodeHeader(Blackhole blackhole) {
+        blackhole.consume(codec.encodeHeader());
+    }
+
+    @Benchmark
+    public void packetToBytes(Blackhole blackhole) {
+        blackhole.consume(codec.packetToBytes());
+    }
+
+    @Benchmark
+    public void packetFromBytes(Blackhole blackhole) {
+        blackhole.consume(codec.packetFromBytes());
+    }
+
+    @Benchmark
+    public void wrap(Blackhole blackhole) {
+        blackhole.consume(codec.wrap());
+    }
+}
@@ -0,0 +1,26 @@
+package rxp.jmh;
+
+/*
+ * Loads the code each benchmark measures.
+ * The protocol's classes are in the default package, which cannot be imported from a named package, and JMH
+ * will not generate benchmarks for classes in the default package. So every benchmark declares an interface
+ * for what it measures, and a class in the default package (src/jmh/java/RxP*Operations.java) implements it
+ * with the protocol's classes. It is loaded once per trial, and as the only implementation its calls are
+ * inlined by the JIT like direct calls.
+ */
+final class Operations {
+
+    private Operations() {
+    }
+
+    /*
+     * Returns a new instance of the default package class with the given name, which implements type.
+     */
+    static <T> T load(Class<T> type, String className) {
+        try {
+            return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not load " + className + ".", e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package rxp.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Segmenting a 16 MB file into checksummed packets as the server does, reading it from disk or from the
+ * server's cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class SegmentBenchmark {
+
+    /*
+     * Implemented by RxPSegmentOperations.
+     */
+    public interface Segmenter {
+
+        void setup(String source) throws IOException;
+
+        void segment(Blackhole blackhole) throws IOException;
+
+        void tearDown();
+    }
+
+    @Param({"disk", "cache"})
+    public String source;
+
+    private Segmenter segmenter;
+
+    @Setup
+    public void setup() throws IOException {
+        segmenter = Operations.load(Segmenter.class, "RxPSegmentOperations");
+        segmenter.setup(source);
+    }
+
+    @TearDown
+    public void tearDown() {
+        segmenter.tearDown();
+    }
+
+    @Benchmark
+    public void segment(Blackhole blackhole) throws IOException {
+        segmenter.segment(blackhole);
+    }
+}
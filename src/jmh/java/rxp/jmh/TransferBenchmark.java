@@ -0,0 +1,63 @@
+package rxp.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Downloading a 4 MB file from a server in the same process over loopback, for each window size.
+ * With "-prof gc" the allocation per operation is the client's, which receives on the benchmark thread; the
+ * server sends on its own threads, whose collections still show in the gc counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+
+    /*
+     * Implemented by RxPTransferOperations.
+     */
+    public interface Transfer {
+
+        void setup(int window) throws IOException;
+
+        void download() throws IOException;
+
+        void tearDown();
+    }
+
+    @Param({"1", "8", "64"})
+    public int window;
+
+    private Transfer transfer;
+
+    @Setup
+    public void setup() throws IOException {
+        transfer = Operations.load(Transfer.class, "RxPTransferOperations");
+        transfer.setup(window);
+    }
+
+    @TearDown
+    public void tearDown() {
+        transfer.tearDown();
+    }
+
+    @Benchmark
+    public void download() throws IOException {
+        transfer.download();
+    }
+}
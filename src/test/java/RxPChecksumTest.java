@@ -0,0 +1,30 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Checks that combining the checksums of two pieces of data gives the checksum of both, for every checksum
+ * type and for pieces of many lengths, including empty ones and a full segment.
+ */
+public class RxPChecksumTest {
+
+    private static final int[] LENGTHS = {0, 1, 2, 3, 7, 8, 255, 256, 1000, 1444, 4096, 65479};
+
+    @Test
+    public void combineMatchesWholeChecksum() {
+        RxPChecksum checksum = new RxPChecksum();
+        byte[] data = new byte[2 * 65479];
+        new Random(21).nextBytes(data);
+        for (int type : new int[]{RxPChecksum.CRC32, RxPChecksum.CRC32C}) {
+            for (int first : new int[]{0, 1, 28, 1000}) {
+                for (int second : LENGTHS) {
+                    int combined = RxPChecksum.combine(RxPChecksum.zerosOperator(type, second),
+                            checksum.calculate(type, data, 0, first), checksum.calculate(type, data, first, second));
+                    assertEquals(checksum.calculate(type, data, 0, first + second), combined,
+                            RxPChecksum.getName(type) + " of " + first + " and " + second + " bytes");
+                }
+            }
+        }
+    }
+}
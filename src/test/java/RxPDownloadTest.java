@@ -0,0 +1,215 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * Downloads files from a blocking server in the same process over the emulated network, which loses, reorders,
+ * duplicates and corrupts packets, and checks the received bytes are those of the file. Every network is seeded,
+ * so each test sees the same impairments each time it runs; a download that stalls fails on the timeout.
+ */
+@Timeout(value = 120, unit = TimeUnit.SECONDS)
+public class RxPDownloadTest {
+
+    private static final int SERVER_PORT = 8081;
+    private static final int CLIENT_PORT = 8080;
+
+    @TempDir
+    Path dir;
+
+    private RxPNetEmulator network;
+    private RxPTransport serverTransport;
+    private RxPAPI server;
+    private RxPAPI client;
+
+    /*
+     * Creates the network with a seed and the impairments every test starts from: a millisecond of delay,
+     * and the given probability of each packet being lost, duplicated, corrupted and reordered.
+     */
+    private void network(long seed, double impairment) {
+        network = new RxPNetEmulator(seed);
+        network.setDelay(1);
+        network.setLoss(impairment);
+        network.setDuplication(impairment);
+        network.setCorruption(impairment);
+        network.setReordering(impairment);
+    }
+
+    /*
+     * Starts the server listening on another thread, and creates the client, which downloads whole files as
+     * they are unless a test turns delta downloads back on. The client is configured before it connects.
+     */
+    private void start() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        serverTransport = network.bind(SERVER_PORT);
+        server = new RxPAPI(serverTransport, loopback, CLIENT_PORT, false);
+        client = new RxPAPI(network.bind(CLIENT_PORT), loopback, SERVER_PORT, true);
+        final RxPAPI serverRxP = server;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    serverRxP.listen();
+                } catch (IOException e) {
+                    //the transport was closed at the end of the test
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        client.setDelta("off");
+    }
+
+    private void connect(String window) throws IOException {
+        client.createConnection();
+        client.updateWindow(window);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        if (serverTransport != null) {
+            serverTransport.close();
+        }
+    }
+
+    /*
+     * Writes a file of the given contents to the test's directory and returns its name.
+     */
+    private String write(String name, byte[] contents) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, contents);
+        return file.toString();
+    }
+
+    /*
+     * Downloads a file and checks the received file holds the given contents.
+     */
+    private void download(String name, byte[] contents) throws IOException {
+        client.recvFrom(name);
+        assertArrayEquals(contents, Files.readAllBytes(Path.of(RxPAPI.receivedName(name))), name);
+    }
+
+    private static byte[] random(long seed, int length) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /*
+     * Lines of a log, which compress well, so the test also covers compressed segments.
+     */
+    private static byte[] text(long seed, int length) {
+        Random rng = new Random(seed);
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; log.length() < length; i++) {
+            log.append("2026-10-18 12:").append(i % 60).append(" INFO [worker-").append(i % 13)
+                    .append("] request ").append(rng.nextInt(100000)).append(" served in ")
+                    .append(rng.nextInt(500)).append(" ms\n");
+        }
+        return log.toString().getBytes();
+    }
+
+    @Test
+    public void stopAndWaitThroughLoss() throws IOException {
+        network(1, 0.05);
+        start();
+        connect("1");
+        byte[] contents = random(11, 100 * 1024 + 17);
+        download(write("saw.dat", contents), contents);
+    }
+
+    /*
+     * Packets after a gap are held by the client and listed in its selective ACKs, so only the gaps are resent.
+     */
+    @Test
+    public void slidingWindowResendsGaps() throws IOException {
+        network(2, 0.02);
+        start();
+        connect("32");
+        byte[] random = random(12, 2 * 1024 * 1024 + 5);
+        download(write("random.dat", random), random);
+        byte[] text = text(13, 1024 * 1024);
+        download(write("text.dat", text), text);
+        byte[] empty = new byte[0];
+        download(write("empty.dat", empty), empty);
+    }
+
+    /*
+     * With a window of four packets the client's reassembly ring has four slots, which heavy reordering fills
+     * and wraps around many times over the transfer.
+     */
+    @Test
+    public void smallWindowWrapsReassemblyRing() throws IOException {
+        network(3, 0.02);
+        network.setReordering(0.3);
+        network.setReorderDelay(3);
+        start();
+        connect("4");
+        byte[] contents = random(14, 512 * 1024 + 3);
+        download(write("ring.dat", contents), contents);
+    }
+
+    @Test
+    public void parityRepairsLosses() throws IOException {
+        network(4, 0.02);
+        start();
+        client.setFec("on");
+        connect("32");
+        byte[] contents = random(15, 2 * 1024 * 1024 + 9);
+        download(write("parity.dat", contents), contents);
+    }
+
+    /*
+     * The older copy next to the download has bytes inserted, changed and removed, so the client downloads
+     * the blocks that differ and puts the file together from them and the blocks it has.
+     */
+    @Test
+    public void deltaRebuildsEditedCopy() throws IOException {
+        network(5, 0.02);
+        start();
+        client.setDelta("on");
+        connect("32");
+        int size = 1024 * 1024 + 77;
+        byte[] contents = random(16, size);
+        String name = write("delta.dat", contents);
+        ByteArrayOutputStream old = new ByteArrayOutputStream();
+        old.write(contents, 0, size / 4);
+        old.write(new byte[100]);
+        old.write(contents, size / 4, size / 4);
+        old.write(contents, size / 2 + 1000, size / 2 - 6000);
+        byte[] oldCopy = old.toByteArray();
+        oldCopy[size / 8] ^= 1;
+        Files.write(Path.of(RxPAPI.receivedName(name)), oldCopy);
+        download(name, contents);
+    }
+
+    /*
+     * Uncompressed segments of a cached file are sent with checksums combined from that of the header and that
+     * of the segment, which the client checks like any other; corrupted packets must still be caught.
+     */
+    @Test
+    public void cachedChecksumsThroughCorruption() throws IOException {
+        network(6, 0.01);
+        network.setCorruption(0.05);
+        start();
+        client.setCompression("off");
+        client.setChecksum("crc32c");
+        connect("32");
+        byte[] contents = random(17, 1024 * 1024 + 1);
+        String name = write("cached.dat", contents);
+        download(name, contents);
+        download(name, contents);
+    }
+}
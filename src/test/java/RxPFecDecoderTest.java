@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Builds a group of data packets and its parity packet with RxPFecEncoder, loses packets of the group on the
+ * way to an RxPFecDecoder and checks what it repairs.
+ */
+public class RxPFecDecoderTest {
+
+    private static final int MSS = 64;
+    //data packets leave room in the segment size for what a parity packet adds
+    private static final int PAYLOAD = MSS - RxPFecEncoder.OVERHEAD;
+    private static final int REQUEST = 7;
+    private static final int STREAM = 3;
+
+    private final RxPCodec codec = new RxPCodec();
+    private final ByteBuffer[] packets = new ByteBuffer[5];
+    private ByteBuffer parity;
+
+    /*
+     * Builds five data packets from the given sequence number, the last of them short and final, and the
+     * parity packet of the group.
+     */
+    private void group(int first) {
+        Random rng = new Random(31);
+        RxPFecEncoder encoder = new RxPFecEncoder(PAYLOAD);
+        for (int i = 0; i < packets.length; i++) {
+            boolean last = i == packets.length - 1;
+            byte[] data = new byte[last ? PAYLOAD / 3 : PAYLOAD];
+            rng.nextBytes(data);
+            ByteBuffer packet = ByteBuffer.allocate(RxPCodec.HEADER_SIZE + data.length);
+            RxPCodec.encodeHeader(packet, 1, 2, first + i, REQUEST, 0, (last ? RxPCodec.FIN : 0) | STREAM, 0);
+            packet.put(data);
+            packet.flip();
+            packets[i] = packet;
+            assertEquals(last, encoder.add(codec.wrap(packet), last));
+        }
+        parity = ByteBuffer.allocate(RxPCodec.HEADER_SIZE + MSS);
+        encoder.encodeParity(parity, 1, 2, REQUEST, STREAM);
+    }
+
+    private static byte[] payload(RxPCodec codec) {
+        byte[] data = new byte[codec.getDataLength()];
+        codec.getData(data, 0);
+        return data;
+    }
+
+    @Test
+    public void repairsOneLostPacket() {
+        int first = 40;
+        group(first);
+        for (int lost = 0; lost < packets.length; lost++) {
+            RxPFecDecoder decoder = new RxPFecDecoder(MSS);
+            int next = first;
+            for (int i = 0; i < packets.length; i++) {
+                if (i != lost) {
+                    assertTrue(decoder.store(codec.wrap(packets[i]), next));
+                    if (i == next - first) {
+                        next++;
+                    }
+                }
+            }
+            assertTrue(decoder.repair(codec.wrap(parity), next), "packet " + lost);
+            RxPCodec repaired = new RxPCodec().wrap(decoder.get(first + lost));
+            RxPCodec original = new RxPCodec().wrap(packets[lost]);
+            assertArrayEquals(payload(original), payload(repaired));
+            assertEquals(original.getFlags(), repaired.getFlags());
+            assertEquals(REQUEST, repaired.getAckNumber());
+        }
+    }
+
+    @Test
+    public void cannotRepairTwoLostPackets() {
+        int first = 0;
+        group(first);
+        RxPFecDecoder decoder = new RxPFecDecoder(MSS);
+        decoder.store(codec.wrap(packets[0]), 0);
+        decoder.store(codec.wrap(packets[2]), 1);
+        decoder.store(codec.wrap(packets[4]), 1);
+        assertFalse(decoder.repair(codec.wrap(parity), 1));
+        //once one of them is resent the parity packet kept back repairs the other
+        decoder.store(codec.wrap(packets[1]), 1);
+        assertTrue(decoder.repair(null, 3));
+        assertArrayEquals(payload(new RxPCodec().wrap(packets[3])), payload(new RxPCodec().wrap(decoder.get(3))));
+        assertNull(decoder.get(5));
+    }
+}
@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Checks the client only holds packets that fit in its window ahead of the next one expected, that a slot
+ * reused by a later packet no longer returns the earlier one, and the ranges it reports in selective ACKs.
+ */
+public class RxPReassemblyBufferTest {
+
+    private static final int CAPACITY = 8;
+    private static final int MSS = 16;
+
+    private final RxPCodec codec = new RxPCodec();
+
+    private RxPCodec packet(int seq, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(RxPCodec.HEADER_SIZE + length);
+        RxPCodec.encodeHeader(buffer, 1, 2, seq, 0, 0, 0, 0);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) (seq + i));
+        }
+        buffer.flip();
+        return codec.wrap(buffer);
+    }
+
+    @Test
+    public void holdsOnlyPacketsInsideTheWindow() {
+        RxPReassemblyBuffer buffer = new RxPReassemblyBuffer(CAPACITY, MSS);
+        int next = 100;
+        //the next packet expected and those before it are accepted in order, not held
+        assertFalse(buffer.store(packet(next, MSS), next));
+        assertFalse(buffer.store(packet(next - 1, MSS), next));
+        //the last packet the window has room for is held, the one after it is not
+        assertTrue(buffer.store(packet(next + CAPACITY - 1, MSS), next));
+        assertFalse(buffer.store(packet(next + CAPACITY, MSS), next));
+        //nor is a packet longer than the segment size
+        assertFalse(buffer.store(packet(next + 1, MSS + 1), next));
+        assertNull(buffer.get(next + CAPACITY));
+        assertNull(buffer.get(next + 1));
+    }
+
+    @Test
+    public void reusedSlotForgetsEarlierPacket() {
+        RxPReassemblyBuffer buffer = new RxPReassemblyBuffer(CAPACITY, MSS);
+        assertTrue(buffer.store(packet(3, MSS), 0));
+        ByteBuffer held = buffer.get(3);
+        assertEquals(RxPCodec.HEADER_SIZE + MSS, held.remaining());
+        byte[] expected = new byte[MSS];
+        for (int i = 0; i < MSS; i++) {
+            expected[i] = (byte) (3 + i);
+        }
+        byte[] payload = new byte[MSS];
+        codec.wrap(held).getData(payload, 0);
+        assertArrayEquals(expected, payload);
+
+        //once the window has moved on a whole ring, the same slot holds a later packet of a different length
+        assertTrue(buffer.store(packet(3 + CAPACITY, 5), 4));
+        assertNull(buffer.get(3));
+        assertEquals(RxPCodec.HEADER_SIZE + 5, buffer.get(3 + CAPACITY).remaining());
+    }
+
+    @Test
+    public void writesRangesOfHeldPackets() {
+        RxPReassemblyBuffer buffer = new RxPReassemblyBuffer(CAPACITY, MSS);
+        int next = 10;
+        assertFalse(buffer.hasGap(next));
+        for (int seq : new int[]{11, 12, 14, 17}) {
+            assertTrue(buffer.store(packet(seq, MSS), next));
+        }
+        assertTrue(buffer.hasGap(next));
+        ByteBuffer ranges = ByteBuffer.allocate(64);
+        assertEquals(3, buffer.writeRanges(ranges, next, 4));
+        ranges.flip();
+        int[] expected = {11, 13, 14, 15, 17, 18};
+        for (int value : expected) {
+            assertEquals(value, ranges.getInt());
+        }
+        //no more ranges are written than asked for
+        ranges.clear();
+        assertEquals(2, buffer.writeRanges(ranges, next, 2));
+    }
+}
@@ -0,0 +1,127 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Drives a sender's window with ACKs built by hand, as a client would send them after losses, and checks
+ * which packets it sends again.
+ */
+public class RxPSendWindowTest {
+
+    private static final int WINDOW = 64;
+    private static final int TOTAL = 1000;
+
+    private RxPSendWindow window(boolean sack) {
+        RxPConnection conn = new RxPConnection(new InetSocketAddress(InetAddress.getLoopbackAddress(), 1), 1, 1000);
+        conn.setWindowSize(WINDOW);
+        conn.setSack(sack);
+        RxPSendWindow window = new RxPSendWindow(conn, RxPCongestionControl.create("reno"), null,
+                new RxPStats(null), 1000, 50);
+        window.start(TOTAL, TOTAL * 1000L, System.currentTimeMillis());
+        return window;
+    }
+
+    /*
+     * Returns an ACK of a packet, with the ranges of packets the client holds after it as the first
+     * sequence number of each range and the one after its last.
+     */
+    private static RxPCodec ack(int seq, int... ranges) {
+        ByteBuffer buffer = ByteBuffer.allocate(RxPCodec.HEADER_SIZE + 4 * ranges.length);
+        RxPCodec.encodeHeader(buffer, 2, 1, seq, WINDOW, 0, RxPCodec.ACK, 0);
+        for (int value : ranges) {
+            buffer.putInt(value);
+        }
+        buffer.flip();
+        return new RxPCodec().wrap(buffer);
+    }
+
+    /*
+     * Sends every new packet the window allows, and returns the first one not sent.
+     */
+    private static int sendNew(RxPSendWindow window) {
+        int seq;
+        while ((seq = window.next(true)) >= 0 && seq == window.getHighestSent()) {
+            window.sent(seq);
+        }
+        return window.getHighestSent();
+    }
+
+    /*
+     * Returns the packets sent before the first new one.
+     */
+    private static List<Integer> resent(RxPSendWindow window) {
+        List<Integer> resent = new ArrayList<>();
+        int seq;
+        while ((seq = window.next(true)) >= 0 && seq < window.getHighestSent()) {
+            window.sent(seq);
+            resent.add(seq);
+        }
+        return resent;
+    }
+
+    /*
+     * Sends packets, ACKs them in order up to the given one, and returns the first packet not sent.
+     */
+    private static int openWindow(RxPSendWindow window, int acked) {
+        for (int seq = 0; seq <= acked; seq++) {
+            sendNew(window);
+            window.ack(ack(seq));
+        }
+        return sendNew(window);
+    }
+
+    @Test
+    public void resendsOnlyTheGapsTheClientReports() {
+        RxPSendWindow window = window(true);
+        int highest = openWindow(window, 19);
+        //20 and 23 are lost, and the client holds 21, 22 and 24 to 29
+        assertTrue(highest > 30);
+        window.ack(ack(19, 21, 23));
+        window.ack(ack(19, 21, 23, 24, 26));
+        assertEquals(List.of(), resent(window));
+        window.ack(ack(19, 21, 23, 24, 30));
+        assertEquals(List.of(20, 23), resent(window));
+        //the resent packets arrive, and nothing is sent again
+        window.ack(ack(29));
+        assertEquals(List.of(), resent(window));
+    }
+
+    @Test
+    public void resendsEverythingOutstandingWithoutSack() {
+        RxPSendWindow window = window(false);
+        int highest = openWindow(window, 9);
+        for (int i = 0; i < 3; i++) {
+            window.ack(ack(9));
+        }
+        List<Integer> expected = new ArrayList<>();
+        List<Integer> resent = resent(window);
+        for (int seq = 10; seq < 10 + resent.size(); seq++) {
+            expected.add(seq);
+        }
+        assertFalse(resent.isEmpty());
+        assertEquals(expected, resent);
+        assertTrue(10 + resent.size() <= highest);
+    }
+
+    @Test
+    public void timeoutResendsFromTheLowestOutstanding() {
+        RxPSendWindow window = window(true);
+        openWindow(window, 4);
+        window.ack(ack(4, 6, 8));
+        //the window moved, which restarts the timer, and then it runs out
+        assertTrue(window.checkTimer(System.currentTimeMillis()));
+        assertTrue(window.checkTimer(window.getDeadline()));
+        //the congestion window is down to one packet, the lowest the client does not hold
+        assertEquals(List.of(5), resent(window));
+        //once it arrives the window moves past the packets the client holds, and resends from the next gap
+        window.ack(ack(7));
+        assertEquals(8, resent(window).get(0));
+    }
+}